@@ -0,0 +1,97 @@
+package agent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 任务准入控制
+ * 限制已提交但尚未开始执行的任务数量；队列已满，或按观测到的排空速率估算的等待时间超过任务超时时间时，
+ * 直接拒绝新任务，并给出基于排空速率的建议重试时间
+ */
+class AdmissionController {
+
+    // 排空速率 EWMA 的平滑系数
+    private static final double ALPHA = 0.2;
+    // 没有观测数据时假设的排空速率（个/秒）
+    private static final double INITIAL_DRAIN_RATE = 1.0;
+    // 两次出队间隔的上限
+    private static final double MAX_INTERVAL_SECONDS = 30.0;
+
+    private final int queueCapacity;
+    private final long taskTimeoutSeconds;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private double drainRate = INITIAL_DRAIN_RATE;
+    private long lastDrainNanos = System.nanoTime();
+    private boolean lastDrainBacklogged;
+
+    AdmissionController(int queueCapacity, long taskTimeoutSeconds) {
+        this.queueCapacity = queueCapacity;
+        this.taskTimeoutSeconds = taskTimeoutSeconds;
+    }
+
+    /**
+     * 申请入队，无法在超时时间内处理时抛出 TaskRejectedException
+     */
+    void admit() {
+        while (true) {
+            int depth = queueDepth.get();
+            double rate = getDrainRate();
+            double expectedWaitSeconds = (depth + 1) / rate;
+            if (depth >= queueCapacity || expectedWaitSeconds > taskTimeoutSeconds) {
+                rejected.incrementAndGet();
+                throw new TaskRejectedException(
+                    String.format("任务队列已满（排队 %d 个，预计等待 %.0f 秒）", depth, expectedWaitSeconds),
+                    retryAfterSeconds(depth, rate));
+            }
+            if (queueDepth.compareAndSet(depth, depth + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 任务离开队列（开始执行，或在排队期间被取消/超时）
+     */
+    void release(boolean started) {
+        int remaining = queueDepth.decrementAndGet();
+        if (started) {
+            recordDrain(remaining > 0);
+        }
+    }
+
+    /**
+     * 任务已入队但提交到线程池失败时撤销准入
+     */
+    void rollback() {
+        queueDepth.decrementAndGet();
+    }
+
+    /**
+     * 以队列腾出一个空位、且预计等待回到超时时间内所需的时间作为重试建议
+     */
+    private long retryAfterSeconds(int depth, double rate) {
+        int sustainable = (int) Math.min(queueCapacity, Math.floor(rate * taskTimeoutSeconds));
+        double seconds = Math.max(1, depth + 1 - sustainable) / rate;
+        return Math.max(1, Math.min(taskTimeoutSeconds, (long) Math.ceil(seconds)));
+    }
+
+    /**
+     * 只有上一次出队时仍有任务在排队，两次出队的间隔才反映处理能力；空闲期的间隔只反映提交速率，不计入
+     */
+    private synchronized void recordDrain(boolean backlogged) {
+        long now = System.nanoTime();
+        if (lastDrainBacklogged) {
+            double interval = Math.min(MAX_INTERVAL_SECONDS, Math.max(1e-3, (now - lastDrainNanos) / 1e9));
+            drainRate = ALPHA * (1.0 / interval) + (1 - ALPHA) * drainRate;
+        }
+        lastDrainNanos = now;
+        lastDrainBacklogged = backlogged;
+    }
+
+    synchronized double getDrainRate() { return drainRate; }
+
+    int getQueueDepth() { return queueDepth.get(); }
+
+    long getRejectedCount() { return rejected.get(); }
+}
@@ -0,0 +1,117 @@
+package agent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Agent 调用器
+ * 在 initializeAgents 时一次性解析出调用方式，执行步骤时不再做反射查找和异常驱动的回退
+ */
+@FunctionalInterface
+interface AgentInvoker {
+
+    String invoke(String action, Map<String, Object> params) throws Exception;
+
+    /**
+     * 调用 Agent，生成过程中的 token 通过 onToken 回调推送；默认实现不支持流式输出，直接返回完整结果
+     */
+    default String invoke(String action, Map<String, Object> params, Consumer<String> onToken) throws Exception {
+        return invoke(action, params);
+    }
+
+    /**
+     * 为同一个 Agent 组合阻塞调用器和流式 Agent：
+     * 两参数调用走阻塞路径，带 token 回调的调用走流式路径，最终结果都是模型最后一条回复的完整文本
+     */
+    static AgentInvoker streaming(AgentInvoker blocking, EnhancedAgentOrchestrator.StreamingAgent agent) {
+        return new AgentInvoker() {
+            @Override
+            public String invoke(String action, Map<String, Object> params) throws Exception {
+                return blocking.invoke(action, params);
+            }
+
+            @Override
+            public String invoke(String action, Map<String, Object> params, Consumer<String> onToken) throws Exception {
+                CompletableFuture<String> done = new CompletableFuture<>();
+                agent.chat(buildInputFromParams(action, params))
+                    .onPartialResponse(onToken)
+                    .onCompleteResponse(response -> done.complete(response.aiMessage().text()))
+                    .onError(done::completeExceptionally)
+                    .start();
+                try {
+                    return done.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("等待流式输出时被中断");
+                } catch (ExecutionException e) {
+                    throw propagate(e.getCause());
+                }
+            }
+        };
+    }
+
+    /**
+     * 为 AiServices 生成的 Agent 解析调用方式：
+     * 接口声明了 chat(String, Map) 重载时直接传递结构化参数，否则将 action/params 拼接为文本调用 chat(String)
+     */
+    static <T> AgentInvoker resolve(Class<T> agentType, T agent) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            MethodHandle structured = lookup
+                .findVirtual(agentType, "chat", MethodType.methodType(String.class, String.class, Map.class))
+                .bindTo(agent);
+            return (action, params) -> {
+                try {
+                    return (String) structured.invokeExact(action, params);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            // 仅在初始化时走到这里：接口只有 chat(String)
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("无法访问 Agent 接口: " + agentType.getName(), e);
+        }
+        try {
+            MethodHandle textual = lookup
+                .findVirtual(agentType, "chat", MethodType.methodType(String.class, String.class))
+                .bindTo(agent);
+            return (action, params) -> {
+                String input = buildInputFromParams(action, params);
+                try {
+                    return (String) textual.invokeExact(input);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            };
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Agent 接口缺少 chat(String) 方法: " + agentType.getName(), e);
+        }
+    }
+
+    private static Exception propagate(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return t instanceof Exception ? (Exception) t : new IllegalStateException(t);
+    }
+
+    private static String buildInputFromParams(String action, Map<String, Object> params) {
+        if (params == null || params.isEmpty()) {
+            return action;
+        }
+
+        StringBuilder input = new StringBuilder();
+        input.append("Action: ").append(action).append("\n");
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            input.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return input.toString();
+    }
+}
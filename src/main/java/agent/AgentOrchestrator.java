@@ -1,7 +1,7 @@
 package agent;
 
 import config.AgentConfig;
-import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.data.message.UserMessage;
 import tools.CalculatorTool;
@@ -24,15 +24,15 @@ import java.util.concurrent.ExecutorService;
 @Component
 public class AgentOrchestrator {
     
-    private final ExecutorService executorService;
+    private final ExecutorService executorService; // Agent 调用使用步骤线程池
     private final Map<String, SpecializedAgent> agents;
-    private final OpenAiChatModel model;
+    private final ChatModel model;
     private final AgentConfig agentConfig;
     
     @Autowired
     public AgentOrchestrator(AgentConfig agentConfig) {
         this.agentConfig = agentConfig;
-        this.executorService = agentConfig.getExecutorService();
+        this.executorService = agentConfig.getStepExecutorService();
         this.model = agentConfig.getModel();
         
         // 初始化各种专业 Agent
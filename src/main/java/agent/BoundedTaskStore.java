@@ -0,0 +1,191 @@
+package agent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界任务存储（默认实现）
+ * 运行中的任务常驻内存；已结束的任务按结束顺序排队，超过保留时间或总估算字节数超过上限时从最早结束的开始淘汰。
+ * 配置了归档目录时，被淘汰的任务写入磁盘归档，按ID查询仍然可以读到
+ */
+class BoundedTaskStore implements TaskStore {
+
+    private final long ttlNanos;
+    private final long maxRetainedBytes;
+    private final TaskArchive archive;
+    private final Map<String, TaskExecution> running = new ConcurrentHashMap<>();
+    // 已结束的任务，按结束顺序排列，最早结束的在队头
+    private final LinkedHashMap<String, Entry> finished = new LinkedHashMap<>();
+    // 已淘汰、正在写入归档的任务，写完之前仍可查询
+    private final Map<String, TaskExecution> archiving = new ConcurrentHashMap<>();
+    private long retainedBytes;
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong archiveFailures = new AtomicLong();
+
+    /**
+     * @param archive 归档，为 null 时被淘汰的任务直接丢弃
+     */
+    BoundedTaskStore(long ttlSeconds, long maxRetainedBytes, TaskArchive archive) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.archive = archive;
+    }
+
+    @Override
+    public void put(TaskExecution task) {
+        running.put(task.getTaskId(), task);
+    }
+
+    @Override
+    public void markFinished(TaskExecution task) {
+        List<TaskExecution> evicted;
+        synchronized (this) {
+            // 重复调用（abort 与执行线程各报告一次）时只处理第一次
+            if (running.get(task.getTaskId()) != task) {
+                return;
+            }
+            // 先放入已结束队列再从运行表移除，查询期间任务始终可见
+            long bytes = estimateBytes(task);
+            finished.put(task.getTaskId(), new Entry(task, System.nanoTime(), bytes));
+            retainedBytes += bytes;
+            running.remove(task.getTaskId());
+            evicted = evictLocked();
+        }
+        spill(evicted);
+    }
+
+    @Override
+    public void remove(String taskId) {
+        running.remove(taskId);
+    }
+
+    @Override
+    public TaskExecution get(String taskId) {
+        TaskExecution task = running.get(taskId);
+        if (task != null) {
+            return task;
+        }
+        List<TaskExecution> evicted;
+        synchronized (this) {
+            evicted = evictLocked();
+            Entry entry = finished.get(taskId);
+            if (entry != null) {
+                task = entry.task;
+            }
+        }
+        spill(evicted);
+        if (task != null) {
+            return task;
+        }
+        task = archiving.get(taskId);
+        if (task != null || archive == null) {
+            return task;
+        }
+        try {
+            return archive.read(taskId);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public List<TaskExecution> list() {
+        List<TaskExecution> tasks = new ArrayList<>(running.values());
+        List<TaskExecution> evicted;
+        synchronized (this) {
+            evicted = evictLocked();
+            for (Entry entry : finished.values()) {
+                tasks.add(entry.task);
+            }
+        }
+        spill(evicted);
+        return tasks;
+    }
+
+    /**
+     * 淘汰过期任务，以及超出字节上限部分中最早结束的任务
+     */
+    private List<TaskExecution> evictLocked() {
+        List<TaskExecution> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        Iterator<Entry> iterator = finished.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.finishedNanos < ttlNanos && retainedBytes <= maxRetainedBytes) {
+                break;
+            }
+            iterator.remove();
+            retainedBytes -= entry.bytes;
+            evictions.incrementAndGet();
+            evicted.add(entry.task);
+            if (archive != null) {
+                archiving.put(entry.task.getTaskId(), entry.task);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * 在锁外把淘汰的任务写入归档
+     */
+    private void spill(List<TaskExecution> evicted) {
+        if (archive == null) {
+            return;
+        }
+        for (TaskExecution task : evicted) {
+            try {
+                archive.write(task);
+            } catch (IOException | RuntimeException e) {
+                archiveFailures.incrementAndGet();
+            } finally {
+                archiving.remove(task.getTaskId());
+            }
+        }
+    }
+
+    /**
+     * 按字符数估算任务占用的堆内存（UTF-16 每字符 2 字节，加上对象与事件条目的固定开销）
+     * 结果文本同时被 RESULT 事件引用，只计算一次
+     */
+    private static long estimateBytes(TaskExecution task) {
+        long chars = length(task.getUserInput()) + length(task.getStatusMessage());
+        List<TaskEventLog.Event> events = task.events();
+        for (TaskEventLog.Event event : events) {
+            chars += length(event.message);
+        }
+        return 2 * chars + 64L * events.size() + 256;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    int getRunningCount() { return running.size(); }
+
+    synchronized int getFinishedCount() { return finished.size(); }
+
+    synchronized long getRetainedBytes() { return retainedBytes; }
+
+    long getEvictions() { return evictions.get(); }
+
+    long getArchiveFailures() { return archiveFailures.get(); }
+
+    private static final class Entry {
+        final TaskExecution task;
+        final long finishedNanos;
+        final long bytes;
+
+        Entry(TaskExecution task, long finishedNanos, long bytes) {
+            this.task = task;
+            this.finishedNanos = finishedNanos;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,20 +1,34 @@
 package agent;
 
 import config.AgentConfig;
-import dev.langchain4j.model.openai.OpenAiChatModel;
+import config.TokenUsageTracker;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.TokenStream;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import org.springframework.beans.factory.annotation.Autowired;
+import javax.annotation.PreDestroy;
 import org.springframework.stereotype.Component;
 import service.WebSocketService;
 import tools.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * 增强的 Agent 编排器
@@ -24,202 +38,719 @@ import java.util.stream.Collectors;
 @Component
 public class EnhancedAgentOrchestrator {
     
+    // 单次调用模式使用的通用助手，挂载全部工具
+    private static final String SINGLE_SHOT_AGENT = "assistant";
+    
     private final ExecutorService executorService;
     private final Map<String, SpecializedAgent> agents;
-    private final OpenAiChatModel model;
-    private final Map<String, TaskExecution> activeTasks;
+    private final ChatModel model;
+    private final StreamingChatModel streamingModel;
+    private final boolean streamAgentSteps;
+    private final boolean streamPlanner;
+    private final TaskStore taskStore;
+    private final Map<String, TaskContext> runningTasks = new ConcurrentHashMap<>();
+    private final TaskWaiters taskWaiters = new TaskWaiters();
+    private final ScheduledExecutorService deadlineScheduler;
     private final AtomicInteger taskCounter;
+    private TaskJournal journal;
     private final AgentConfig agentConfig;
     private final WebSocketService webSocketService;
+    private final PlanCache planCache;
+    private final PlanTemplateLibrary planTemplates;
+    private final KeywordRouter keywordRouter;
+    private final long plannerBudgetMillis;
+    private final StepResultCache stepResultCache;
+    private final AdmissionController admissionController;
+    private final ToolDispatcher toolDispatcher = new ToolDispatcher();
+    private final StepLatencyEstimates stepLatencies;
+    private final PlanOptimizer planOptimizer;
+    private final MapStepRunner mapStepRunner;
+    private final MeterRegistry meterRegistry;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     @Autowired
-    public EnhancedAgentOrchestrator(AgentConfig agentConfig, WebSocketService webSocketService) {
+    public EnhancedAgentOrchestrator(AgentConfig agentConfig, WebSocketService webSocketService, MeterRegistry meterRegistry) {
         this.agentConfig = agentConfig;
+        this.meterRegistry = meterRegistry;
         this.executorService = agentConfig.getExecutorService();
         this.model = agentConfig.getModel();
+        this.streamAgentSteps = agentConfig.isStreamingEnabled();
+        this.streamPlanner = agentConfig.isStreamingPlannerEnabled();
+        this.streamingModel = streamAgentSteps || streamPlanner ? agentConfig.getStreamingModel() : null;
+        this.deadlineScheduler = agentConfig.getDeadlineScheduler();
         
         this.agents = new ConcurrentHashMap<>();
-        this.activeTasks = new ConcurrentHashMap<>();
+        this.taskStore = createTaskStore(agentConfig);
         this.taskCounter = new AtomicInteger(0);
         this.webSocketService = webSocketService;
+        this.planCache = new PlanCache(
+            agentConfig.isCachingEnabled() ? agentConfig.getPlanCacheMaxSize() : 0,
+            agentConfig.getPlanCacheTtlSeconds());
+        this.planTemplates = new PlanTemplateLibrary(
+            agentConfig.isCachingEnabled() ? agentConfig.getPlanTemplatesMaxSize() : 0);
+        this.keywordRouter = agentConfig.isRouterEnabled()
+            ? new KeywordRouter(agentConfig.getRouterKeywords(), agentConfig.getRouterSequenceMarkers())
+            : null;
+        this.plannerBudgetMillis = agentConfig.getRouterPlannerBudgetMs();
+        this.stepLatencies = new StepLatencyEstimates(agentConfig.getPlanOptimizerDefaultStepLatencyMs());
+        this.mapStepRunner = new MapStepRunner(agentConfig.getMapStepMaxParallelism(), agentConfig.getMapStepMaxItems());
+        this.planOptimizer = agentConfig.isPlanOptimizerEnabled()
+            ? new PlanOptimizer(agentConfig.isPlanOptimizerFuseSteps(), stepLatencies, toolDispatcher,
+                mapStepRunner.getMaxParallelism())
+            : null;
+        this.admissionController = new AdmissionController(
+            agentConfig.getAdmissionQueueCapacity(), agentConfig.getTaskTimeoutSeconds());
+        this.stepResultCache = new StepResultCache(
+            agentConfig.isCachingEnabled() ? agentConfig.getStepCacheMaxWeightMb() * 1024L * 1024L : 0,
+            Map.of(
+                "calculator", StepResultCache.Policy.immutable(),
+                "translator", StepResultCache.Policy.immutable(),
+                "weather", StepResultCache.Policy.ttl(agentConfig.getStepCacheWeatherTtlSeconds()),
+                "search", StepResultCache.Policy.ttl(agentConfig.getStepCacheSearchTtlSeconds()),
+                "time", StepResultCache.Policy.never(),
+                "file", StepResultCache.Policy.invalidatedByWorkspaceWrites(
+                    Set.of("readFile", "listDirectory", "getFileInfo", "searchFiles")),
+                // 通用助手挂载了文件工具，每次执行都可能写入工作区
+                SINGLE_SHOT_AGENT, StepResultCache.Policy.invalidatedByWorkspaceWrites(Set.of())
+            ), toolDispatcher);
         
         initializeAgents();
+        recoverFromJournal();
+        registerMetrics(meterRegistry);
+    }
+    
+    /**
+     * 启用任务日志时，从日志重建任务存储并恢复任务编号；
+     * 重启前未结束的任务按配置重新排队，或标记为 INTERRUPTED
+     */
+    private void recoverFromJournal() {
+        if (!agentConfig.isJournalEnabled()) {
+            return;
+        }
+        Path directory = Path.of(agentConfig.getJournalDir());
+        List<TaskExecution> unfinished = new ArrayList<>();
+        try {
+            TaskJournal.Recovery recovery = TaskJournal.replay(directory, agentConfig.getTaskLogCapacity());
+            taskCounter.set((int) recovery.getMaxTaskNumber());
+            for (TaskExecution task : recovery.getTasks()) {
+                if (task.isFinished()) {
+                    taskStore.put(task);
+                    taskStore.markFinished(task);
+                } else {
+                    unfinished.add(task);
+                }
+            }
+            journal = new TaskJournal(directory,
+                agentConfig.getJournalSegmentSizeMb() * 1024 * 1024,
+                agentConfig.getJournalMaxSegments(),
+                agentConfig.getJournalLingerMs(),
+                agentConfig.getJournalQueueCapacity());
+        } catch (IOException e) {
+            throw new IllegalStateException("无法读取任务日志: " + directory, e);
+        }
+        
+        boolean requeue = "requeue".equalsIgnoreCase(agentConfig.getJournalRecovery());
+        for (TaskExecution interrupted : unfinished) {
+            if (requeue) {
+                try {
+                    requeueTask(interrupted);
+                    continue;
+                } catch (TaskRejectedException e) {
+                    // 队列已满时与 interrupt 策略相同
+                }
+            }
+            // 先登记到存储再写入日志，保证日志压缩时该任务已在存活任务之中
+            taskStore.put(interrupted);
+            journal.attach(interrupted);
+            interrupted.updateStatus("INTERRUPTED", "服务重启，任务执行被中断");
+            taskStore.markFinished(interrupted);
+        }
+        
+        // 未完成的任务都已登记到存储后再启动写线程，启动时的压缩快照包含它们
+        try {
+            journal.start(taskStore::list, taskCounter::get);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法写入任务日志: " + directory, e);
+        }
+    }
+    
+    /**
+     * 以原任务ID和输入重新提交重启前未完成的任务，重新计算截止时间
+     */
+    private void requeueTask(TaskExecution interrupted) {
+        admissionController.admit();
+        // 事件序号接续原任务，重放日志时新的提交记录覆盖原任务的状态
+        TaskExecution task = new TaskExecution(interrupted.getTaskId(), interrupted.getUserInput(),
+            agentConfig.getTaskTimeoutSeconds(), agentConfig.getTaskLogCapacity(), interrupted.sequence());
+        startTask(task);
+        task.addLog("服务重启后重新排队执行，原任务创建于 " + interrupted.getCreatedAt());
+    }
+    
+    /**
+     * 创建任务存储：已结束任务按保留时间和总字节数淘汰，配置了归档目录时淘汰的任务写入磁盘
+     */
+    private static BoundedTaskStore createTaskStore(AgentConfig agentConfig) {
+        TaskArchive archive = null;
+        String archiveDir = agentConfig.getTaskStoreArchiveDir();
+        if (archiveDir != null && !archiveDir.isBlank()) {
+            try {
+                archive = new TaskArchive(Path.of(archiveDir), agentConfig.getTaskStoreArchiveMaxFiles(),
+                    Duration.ofHours(agentConfig.getTaskStoreArchiveMaxAgeHours()));
+            } catch (IOException e) {
+                throw new IllegalStateException("无法创建任务归档目录: " + archiveDir, e);
+            }
+        }
+        return new BoundedTaskStore(
+            agentConfig.getTaskStoreTtlSeconds(),
+            agentConfig.getTaskStoreMaxRetainedMb() * 1024L * 1024L,
+            archive);
+    }
+    
+    private void registerMetrics(MeterRegistry registry) {
+        Gauge.builder("agent.admission.queue.depth", admissionController, AdmissionController::getQueueDepth)
+            .description("已准入但尚未开始执行的任务数")
+            .register(registry);
+        Gauge.builder("agent.admission.drain.rate", admissionController, AdmissionController::getDrainRate)
+            .description("观测到的任务出队速率（个/秒）")
+            .register(registry);
+        FunctionCounter.builder("agent.admission.rejected", admissionController, AdmissionController::getRejectedCount)
+            .description("因队列已满被拒绝（HTTP 429）的任务数")
+            .register(registry);
+        
+        if (journal != null) {
+            Gauge.builder("agent.journal.pending", journal, TaskJournal::getPendingCount)
+                .description("等待写入任务日志的事件数")
+                .register(registry);
+            Gauge.builder("agent.journal.segments", journal, TaskJournal::getSegmentCount)
+                .description("任务日志分段文件数")
+                .register(registry);
+            FunctionCounter.builder("agent.journal.commits", journal, TaskJournal::getCommits)
+                .description("任务日志批量刷盘次数")
+                .register(registry);
+            FunctionCounter.builder("agent.journal.compactions", journal, TaskJournal::getCompactions)
+                .register(registry);
+            FunctionCounter.builder("agent.journal.write.failures", journal, TaskJournal::getWriteFailures)
+                .register(registry);
+            FunctionCounter.builder("agent.journal.dropped", journal, TaskJournal::getDropped)
+                .description("写入队列已满时丢弃的记录数，由随后写入的存活任务快照补齐")
+                .register(registry);
+        }
+        
+        if (taskStore instanceof BoundedTaskStore) {
+            BoundedTaskStore store = (BoundedTaskStore) taskStore;
+            Gauge.builder("agent.task.store.running", store, BoundedTaskStore::getRunningCount)
+                .description("任务存储中运行中的任务数")
+                .register(registry);
+            Gauge.builder("agent.task.store.finished", store, BoundedTaskStore::getFinishedCount)
+                .description("内存中保留的已结束任务数")
+                .register(registry);
+            Gauge.builder("agent.task.store.retained", store, BoundedTaskStore::getRetainedBytes)
+                .description("已结束任务占用的估算字节数")
+                .baseUnit("bytes")
+                .register(registry);
+            FunctionCounter.builder("agent.task.store.evictions", store, BoundedTaskStore::getEvictions)
+                .register(registry);
+            FunctionCounter.builder("agent.task.store.archive.failures", store, BoundedTaskStore::getArchiveFailures)
+                .register(registry);
+        }
+        
+        Gauge.builder("agent.task.waiters", taskWaiters, TaskWaiters::size)
+            .description("长轮询中等待任务状态变化的请求数")
+            .register(registry);
+        
+        Gauge.builder("agent.plan.cache.size", planCache, PlanCache::size)
+            .description("规划缓存当前条目数")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.cache.requests", planCache, PlanCache::getHits)
+            .tag("result", "hit")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.cache.requests", planCache, PlanCache::getMisses)
+            .tag("result", "miss")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.cache.evictions", planCache, PlanCache::getEvictions)
+            .register(registry);
+        
+        Gauge.builder("agent.plan.templates.size", planTemplates, PlanTemplateLibrary::size)
+            .description("规划模板库当前模板数")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.templates.requests", planTemplates, PlanTemplateLibrary::getHits)
+            .tag("result", "hit")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.templates.requests", planTemplates, PlanTemplateLibrary::getMisses)
+            .tag("result", "miss")
+            .register(registry);
+        FunctionCounter.builder("agent.plan.templates.evictions", planTemplates, PlanTemplateLibrary::getEvictions)
+            .register(registry);
+        
+        if (keywordRouter != null) {
+            FunctionCounter.builder("agent.router.requests", keywordRouter, KeywordRouter::getRouted)
+                .description("关键词预路由的决策次数，routed 为跳过 LLM 规划的次数")
+                .tag("result", "routed")
+                .register(registry);
+            FunctionCounter.builder("agent.router.requests", keywordRouter, KeywordRouter::getPlanned)
+                .description("关键词预路由的决策次数，routed 为跳过 LLM 规划的次数")
+                .tag("result", "planned")
+                .register(registry);
+            FunctionCounter.builder("agent.router.planner.fallbacks", keywordRouter, KeywordRouter::getFallbacks)
+                .description("规划失败或超出时间预算、改用关键词路由结果的次数")
+                .register(registry);
+        }
+        
+        for (String agent : agents.keySet()) {
+            Gauge.builder("agent.step.latency.estimate", stepLatencies, estimates -> estimates.estimateMillis(agent))
+                .description("按 Agent 统计的步骤耗时估计（指数加权平均），用于预测规划耗时")
+                .tag("agent", agent)
+                .baseUnit("milliseconds")
+                .register(registry);
+        }
+        FunctionCounter.builder("agent.step.map.items", mapStepRunner, MapStepRunner::getItems)
+            .description("映射步骤中已执行的列表项数")
+            .register(registry);
+        
+        Gauge.builder("agent.step.cache.size", stepResultCache, StepResultCache::size)
+            .description("步骤结果缓存当前条目数")
+            .register(registry);
+        Gauge.builder("agent.step.cache.weight", stepResultCache, StepResultCache::getWeightBytes)
+            .description("步骤结果缓存占用的估算字节数")
+            .baseUnit("bytes")
+            .register(registry);
+        FunctionCounter.builder("agent.step.cache.requests", stepResultCache, StepResultCache::getHits)
+            .tag("result", "hit")
+            .register(registry);
+        FunctionCounter.builder("agent.step.cache.requests", stepResultCache, StepResultCache::getMisses)
+            .tag("result", "miss")
+            .register(registry);
+        FunctionCounter.builder("agent.step.cache.evictions", stepResultCache, StepResultCache::getEvictions)
+            .register(registry);
     }
     
     private void initializeAgents() {
+        // 工具实例由 Agent 与直连调度表共享
+        CalculatorTool calculatorTool = new CalculatorTool();
+        WeatherTool weatherTool = new WeatherTool();
+        TimeTool timeTool = new TimeTool();
+        SearchTool searchTool = new SearchTool();
+        TranslationTool translationTool = new TranslationTool();
+        FileTool fileTool = new FileTool();
+        
+        toolDispatcher.register("calculator", calculatorTool);
+        toolDispatcher.register("weather", weatherTool);
+        toolDispatcher.register("time", timeTool);
+        toolDispatcher.register("search", searchTool);
+        toolDispatcher.register("translator", translationTool);
+        toolDispatcher.register("file", fileTool);
+        
         // 数学计算 Agent
         agents.put("calculator", new SpecializedAgent(
             "calculator",
             "数学计算专家，专门处理各种数学运算和计算问题",
-            AiServices.builder(CalculatorAgent.class)
+            withStreaming(AgentInvoker.resolve(CalculatorAgent.class, AiServices.builder(CalculatorAgent.class)
                 .chatModel(model)
-                .tools(new CalculatorTool())
-                .build()
+                .tools(calculatorTool)
+                .build()), calculatorTool)
         ));
         
         // 天气查询 Agent
         agents.put("weather", new SpecializedAgent(
             "weather",
             "天气信息专家，提供全球各地的天气、温度、湿度等信息",
-            AiServices.builder(WeatherAgent.class)
+            withStreaming(AgentInvoker.resolve(WeatherAgent.class, AiServices.builder(WeatherAgent.class)
                 .chatModel(model)
-                .tools(new WeatherTool())
-                .build()
+                .tools(weatherTool)
+                .build()), weatherTool)
         ));
         
         // 时间管理 Agent
         agents.put("time", new SpecializedAgent(
             "time",
             "时间管理专家，处理时间查询、时区转换、时间计算等",
-            AiServices.builder(TimeAgent.class)
+            withStreaming(AgentInvoker.resolve(TimeAgent.class, AiServices.builder(TimeAgent.class)
                 .chatModel(model)
-                .tools(new TimeTool())
-                .build()
+                .tools(timeTool)
+                .build()), timeTool)
         ));
         
         // 搜索 Agent
         agents.put("search", new SpecializedAgent(
             "search",
             "信息搜索专家，提供知识查询和搜索服务",
-            AiServices.builder(SearchAgent.class)
+            withStreaming(AgentInvoker.resolve(SearchAgent.class, AiServices.builder(SearchAgent.class)
                 .chatModel(model)
-                .tools(new SearchTool())
-                .build()
+                .tools(searchTool)
+                .build()), searchTool)
         ));
         
         // 翻译 Agent
         agents.put("translator", new SpecializedAgent(
             "translator",
             "语言翻译专家，支持多语言翻译和语言处理",
-            AiServices.builder(TranslationAgent.class)
+            withStreaming(AgentInvoker.resolve(TranslationAgent.class, AiServices.builder(TranslationAgent.class)
                 .chatModel(model)
-                .tools(new TranslationTool())
-                .build()
+                .tools(translationTool)
+                .build()), translationTool)
         ));
         
         // 文件操作 Agent
         agents.put("file", new SpecializedAgent(
             "file",
             "文件操作专家，处理文件读写、目录管理、文件搜索等",
-            AiServices.builder(FileAgent.class)
+            withStreaming(AgentInvoker.resolve(FileAgent.class, AiServices.builder(FileAgent.class)
                 .chatModel(model)
-                .tools(new FileTool())
-                .build()
+                .tools(fileTool)
+                .build()), fileTool)
         ));
+        
+        // 通用助手：挂载全部工具，单次调用模式下不经规划直接回答
+        agents.put(SINGLE_SHOT_AGENT, new SpecializedAgent(
+            SINGLE_SHOT_AGENT,
+            "通用助手，可直接使用全部工具，一次调用完成简单任务",
+            withStreaming(AgentInvoker.resolve(AssistantAgent.class, AiServices.builder(AssistantAgent.class)
+                .chatModel(model)
+                .tools(calculatorTool, weatherTool, timeTool, searchTool, translationTool, fileTool)
+                .build()), calculatorTool, weatherTool, timeTool, searchTool, translationTool, fileTool)
+        ));
+    }
+    
+    /**
+     * 启用流式输出时，为 Agent 额外构建一个挂载相同工具的流式 Agent
+     */
+    private AgentInvoker withStreaming(AgentInvoker blocking, Object... tools) {
+        if (!streamAgentSteps) {
+            return blocking;
+        }
+        return AgentInvoker.streaming(blocking, AiServices.builder(StreamingAgent.class)
+            .streamingChatModel(streamingModel)
+            .tools(tools)
+            .build());
     }
     
     /**
      * 提交复杂任务（LLM驱动的多Agent规划与执行）
+     *
+     * @throws TaskRejectedException 排队任务过多、无法在超时时间内完成时
      */
     public TaskExecution submitTask(String userInput) {
+        return submitTask(userInput, null);
+    }
+    
+    /**
+     * 提交任务并记录提交者，任务更新额外推送到提交者的用户队列
+     *
+     * @param owner 提交者的 WebSocket 用户名，为 null 时不推送用户队列
+     * @throws TaskRejectedException 排队任务过多、无法在超时时间内完成时
+     */
+    public TaskExecution submitTask(String userInput, String owner) {
+        return submitTask(userInput, owner, ExecutionMode.AUTO);
+    }
+    
+    /**
+     * 提交任务并指定执行方式
+     *
+     * @param mode SINGLE_SHOT 由通用助手一次调用完成，PLANNED 总是按规划执行，AUTO 按输入自动选择
+     * @throws TaskRejectedException 排队任务过多、无法在超时时间内完成时
+     */
+    public TaskExecution submitTask(String userInput, String owner, ExecutionMode mode) {
+        admissionController.admit();
+        
         String taskId = "task-" + taskCounter.incrementAndGet();
-        TaskExecution task = new TaskExecution(taskId, userInput);
-        activeTasks.put(taskId, task);
+        TaskExecution task = new TaskExecution(taskId, userInput, agentConfig.getTaskTimeoutSeconds(),
+            agentConfig.getTaskLogCapacity(), 0);
+        task.setOwner(owner);
+        task.setExecutionMode(mode);
+        startTask(task);
+        return task;
+    }
+    
+    /**
+     * 登记已通过准入的任务并交给任务线程池执行
+     */
+    private void startTask(TaskExecution task) {
+        String taskId = task.getTaskId();
+        int timeoutSeconds = agentConfig.getTaskTimeoutSeconds();
+        TaskContext context = new TaskContext(task);
+        taskStore.put(task);
+        if (journal != null) {
+            journal.attach(task);
+        }
+        task.addListener(taskWaiters);
+        runningTasks.put(taskId, context);
         
         // 异步执行任务
-        CompletableFuture.runAsync(() -> {
-            try {
-                executeTask(task);
-            } catch (Exception e) {
+        try {
+            context.track(executorService.submit(() -> runTask(context)));
+        } catch (RejectedExecutionException e) {
+            // 提交事件已写入日志，记录终态，避免重启后被当作未完成任务恢复
+            task.updateStatus("FAILED", "任务线程池已满，未能执行");
+            taskStore.remove(taskId);
+            runningTasks.remove(taskId);
+            admissionController.rollback();
+            throw new TaskRejectedException("任务线程池已满", 1);
+        }
+        
+        // 截止时间到达时中止任务并释放线程
+        context.setDeadlineTimer(deadlineScheduler.schedule(
+            () -> abortTask(context, "TIMED_OUT", "任务执行超时（" + timeoutSeconds + "秒）"),
+            timeoutSeconds, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * 取消任务，正在执行的规划调用和Agent步骤会被中断
+     *
+     * @return 任务仍在运行并被成功取消时返回 true
+     */
+    public boolean cancelTask(String taskId) {
+        TaskContext context = runningTasks.get(taskId);
+        return context != null && abortTask(context, "CANCELLED", "任务已被取消");
+    }
+    
+    private boolean abortTask(TaskContext context, String status, String message) {
+        if (!context.finish()) {
+            return false;
+        }
+        TaskExecution task = context.getTask();
+        if (context.leaveQueue()) {
+            admissionController.release(false);
+        }
+        context.abort();
+        runningTasks.remove(task.getTaskId());
+        task.updateStatus(status, message);
+        taskStore.markFinished(task);
+        webSocketService.pushTaskCancelled(task);
+        return true;
+    }
+    
+    private void runTask(TaskContext context) {
+        TaskExecution task = context.getTask();
+        if (context.leaveQueue()) {
+            admissionController.release(true);
+        }
+        try {
+            context.runGuarded(() -> {
+                executeTask(context);
+                return null;
+            });
+        } catch (CancellationException e) {
+            // 已由 abortTask 写入 TIMED_OUT/CANCELLED 状态
+        } catch (Exception e) {
+            if (context.finish()) {
                 task.updateStatus("FAILED", "任务执行失败: " + e.getMessage());
+                webSocketService.pushTaskFailed(task);
             }
-        }, executorService);
-        
-        return task;
+        } finally {
+            context.cancelDeadlineTimer();
+            runningTasks.remove(task.getTaskId());
+            // 被中止的任务由 abortTask 在写入终态后登记
+            if (!context.isAborted()) {
+                taskStore.markFinished(task);
+            }
+        }
     }
     
     /**
      * LLM驱动的任务执行，按steps顺序/并行调度Agent
      */
-    private void executeTask(TaskExecution task) {
+    private void executeTask(TaskContext context) {
+        TaskExecution task = context.getTask();
         task.updateStatus("ANALYZING", "正在分析任务...");
         webSocketService.pushTaskUpdate(task);
         
-        LlmTaskPlan plan = analyzeTaskWithLLM(task.getUserInput());
+        long started = System.nanoTime();
+        ExecutionMode mode = task.getExecutionMode();
+        // 规划来源，按来源统计任务耗时和 token 用量
+        String source = null;
+        LlmTaskPlan plan = null;
+        if (mode == ExecutionMode.SINGLE_SHOT) {
+            plan = singleShotPlan(task.getUserInput());
+            source = "single-shot";
+        }
+        if (plan == null) {
+            plan = planCache.get(task.getUserInput());
+            source = "cache";
+        }
+        if (plan == null) {
+            // 与已学习的输入形状相同、只是槽位不同时套用模板
+            plan = planTemplates.match(task.getUserInput());
+            source = "template";
+            if (plan != null) {
+                task.addLog("📐 规划模板命中，跳过LLM规划");
+            }
+        }
+        KeywordRouter.Route route = null;
+        if (plan == null && keywordRouter != null) {
+            // 只有一种意图的输入直接交给对应 Agent，不必等待规划调用
+            route = keywordRouter.route(task.getUserInput());
+            keywordRouter.record(route);
+            source = "router";
+            if (route.isConfident()) {
+                plan = route.toPlan(task.getUserInput());
+                task.addLog("🧭 关键词路由: " + route.getIntents().get(0) + "，跳过LLM规划");
+            }
+        }
+        if (plan == null && mode == ExecutionMode.AUTO && prefersSingleShot(task.getUserInput(), route)) {
+            plan = singleShotPlan(task.getUserInput());
+            source = "single-shot";
+        }
+        IncrementalPlanScheduler scheduler = null;
+        // 由规划调用生成的规划，执行成功后学习为模板
+        LlmTaskPlan planned = null;
+        if (plan == null && streamPlanner) {
+            // 流式规划：规划生成过程中就开始执行已确定的步骤
+            scheduler = new IncrementalPlanScheduler(context, agentConfig::getStepExecutorService,
+                agentConfig::getRejectingStepExecutor, (step, params) -> executeAgentStep(step, params, context));
+            planned = analyzeTaskWithStreamingLLM(task.getUserInput(), scheduler, context);
+        } else if (plan == null) {
+            planned = analyzeTaskWithLLM(task.getUserInput(), context);
+        }
+        if (plan == null) {
+            plan = planned != null ? planned : fallbackPlan(task.getUserInput(), route);
+            source = planned != null ? "planner" : "fallback";
+        }
+        context.checkNotAborted();
         task.addLog("任务分析完成: " + (plan.description != null ? plan.description : "LLM任务规划"));
         
         if (plan.steps == null || plan.steps.isEmpty()) {
-            task.updateStatus("FAILED", "无法识别任务类型");
-            webSocketService.pushTaskFailed(task);
+            if (context.finish()) {
+                task.updateStatus("FAILED", "无法识别任务类型");
+                webSocketService.pushTaskFailed(task);
+            }
             return;
         }
         
+        if (scheduler == null && planOptimizer != null) {
+            // 流式规划已按原规划提前派发步骤，不再改写
+            PlanOptimizer.Result optimized = planOptimizer.optimize(plan);
+            plan = optimized.getPlan();
+            task.addLog("🔧 " + optimized.describe());
+        }
+        
         task.updateStatus("EXECUTING", "正在执行任务...");
         webSocketService.pushTaskUpdate(task);
         
-        String result;
-        if (hasComplexDependencies(plan.steps)) {
-            result = executeDagSteps(plan.steps, task);
+        String result = scheduler != null ? scheduler.finish(plan) : null;
+        if (result != null) {
+            // 已由流式规划的增量调度执行完毕
+        } else if (StepGraph.hasComplexDependencies(plan.steps)) {
+            result = executeDagSteps(plan.steps, context);
         } else if ("parallel".equalsIgnoreCase(plan.collaboration)) {
-            result = executeParallelSteps(plan.steps, task);
+            result = executeParallelSteps(plan.steps, context);
         } else {
-            result = executeSequentialSteps(plan.steps, task);
+            result = executeSequentialSteps(plan.steps, context);
         }
         
-        task.setResult(result);
-        task.updateStatus("COMPLETED", "任务执行完成");
-        webSocketService.pushTaskCompleted(task);
+        // 所有步骤都成功、执行本身也没有失败（超时、依赖无效等）时才学习
+        if (planned != null && !context.hasStepFailures() && !result.startsWith("❌")) {
+            planTemplates.learn(task.getUserInput(), planned);
+        }
+        recordExecution(context, source, System.nanoTime() - started);
+        if (context.finish()) {
+            task.setResult(result);
+            task.updateStatus("COMPLETED", "任务执行完成");
+            webSocketService.pushTaskCompleted(task);
+        }
     }
     
     /**
-     * 检查是否有复杂依赖关系
+     * 自动模式下，规划缓存、模板和关键词路由都未能直接给出规划时，交给通用助手一次调用完成的输入：
+     * 关键词路由未发现多步连接词，且输入较短、未命中任何关键词；含“然后/再”等多步标记的输入始终交给规划
      */
-    private boolean hasComplexDependencies(List<LlmTaskStep> steps) {
-        return steps.stream().anyMatch(step -> step.depends_on != null && !step.depends_on.isEmpty());
+    private boolean prefersSingleShot(String userInput, KeywordRouter.Route route) {
+        if (!agentConfig.isSingleShotAuto() || route == null || route.hasSequence()) {
+            return false;
+        }
+        return route.isEmpty() && userInput.trim().length() <= agentConfig.getSingleShotMaxInputChars();
+    }
+    
+    /**
+     * 单次调用：一个步骤交给挂载全部工具的通用助手，动作即用户原文；
+     * 与规划执行走同一条步骤执行路径，任务状态和推送事件相同
+     */
+    private LlmTaskPlan singleShotPlan(String userInput) {
+        LlmTaskPlan plan = new LlmTaskPlan();
+        plan.description = "单次调用：通用助手直接使用全部工具完成";
+        LlmTaskStep step = new LlmTaskStep();
+        step.id = 1;
+        step.agent = SINGLE_SHOT_AGENT;
+        step.action = userInput;
+        step.params = new HashMap<>();
+        plan.steps = List.of(step);
+        plan.collaboration = "sequential";
+        return plan;
+    }
+    
+    /**
+     * 按规划来源记录任务执行耗时（从开始分析到得到结果）和模型 token 用量，用于比较单次调用与规划执行
+     */
+    private void recordExecution(TaskContext context, String source, long elapsedNanos) {
+        Timer.builder("agent.task.execution")
+            .description("任务从开始分析到得到结果的耗时，按规划来源区分")
+            .tag("mode", source)
+            .register(meterRegistry)
+            .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        long input = context.getInputTokens();
+        long output = context.getOutputTokens();
+        DistributionSummary.builder("agent.task.tokens")
+            .description("单个任务的模型 token 用量，按规划来源区分")
+            .tag("mode", source)
+            .tag("type", "input")
+            .register(meterRegistry)
+            .record(input);
+        DistributionSummary.builder("agent.task.tokens")
+            .description("单个任务的模型 token 用量，按规划来源区分")
+            .tag("mode", source)
+            .tag("type", "output")
+            .register(meterRegistry)
+            .record(output);
+        if (input + output > 0) {
+            context.getTask().addLog(String.format("模型 token 用量: 输入 %d，输出 %d", input, output));
+        }
     }
     
     /**
      * DAG调度执行，支持复杂依赖关系
+     * 先拓扑排序校验依赖，再在依赖完成时并发派发就绪步骤，总耗时取决于关键路径
      */
-    private String executeDagSteps(List<LlmTaskStep> steps, TaskExecution task) {
-        Map<Integer, String> stepResults = new HashMap<>();
-        Map<Integer, LlmTaskStep> stepMap = steps.stream().collect(Collectors.toMap(s -> s.id, s -> s));
-        Set<Integer> executed = new HashSet<>();
-        StringBuilder result = new StringBuilder();
-        
+    private String executeDagSteps(List<LlmTaskStep> steps, TaskContext context) {
+        TaskExecution task = context.getTask();
         task.addLog("开始DAG调度执行，共 " + steps.size() + " 个步骤");
         
-        while (executed.size() < steps.size()) {
-            boolean progress = false;
-            for (LlmTaskStep step : steps) {
-                if (executed.contains(step.id)) continue;
-                
-                // 检查依赖是否满足
-                if (step.depends_on == null || step.depends_on.stream().allMatch(executed::contains)) {
-                    task.addLog(String.format("执行步骤 %d: %s (%s)", step.id, step.agent, step.action));
-                    
-                    // 填充依赖结果到参数中
-                    Map<String, Object> params = new HashMap<>(step.params != null ? step.params : new HashMap<>());
-                    for (Map.Entry<String, Object> entry : params.entrySet()) {
-                        if (entry.getValue() instanceof String) {
-                            String value = (String) entry.getValue();
-                            if (value.startsWith("step:")) {
-                                try {
-                                    int depId = Integer.parseInt(value.substring(5));
-                                    String depResult = stepResults.get(depId);
-                                    if (depResult != null) {
-                                        params.put(entry.getKey(), depResult);
-                                    }
-                                } catch (NumberFormatException e) {
-                                    // 忽略无效的step引用
-                                }
-                            }
-                        }
-                    }
-                    
-                    String stepResult = executeAgentStep(step, params, task);
-                    stepResults.put(step.id, stepResult);
-                    result.append(String.format("【步骤%d - %s】\n%s\n\n", step.id, step.agent, stepResult));
-                    executed.add(step.id);
-                    progress = true;
-                }
-            }
+        List<LlmTaskStep> ordered;
+        try {
+            ordered = StepGraph.topologicalSort(steps);
+        } catch (IllegalArgumentException e) {
+            task.addLog("❌ " + e.getMessage());
+            return "❌ " + e.getMessage();
+        }
+        
+        Map<Integer, String> stepResults = new ConcurrentHashMap<>();
+        Map<Integer, CompletableFuture<String>> futures = new HashMap<>();
+        
+        // 按拓扑序构建 future，保证依赖的 future 总是先于当前步骤创建
+        for (LlmTaskStep step : ordered) {
+            CompletableFuture<?>[] dependencies = StepGraph.dependenciesOf(step).stream()
+                .map(futures::get)
+                .toArray(CompletableFuture[]::new);
             
-            if (!progress) {
-                task.addLog("❌ 检测到循环依赖，无法继续执行");
-                return "❌ 检测到循环依赖，无法继续执行";
-            }
+            CompletableFuture<String> future = CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> context.runGuarded(() -> {
+                task.addLog(String.format("执行步骤 %d: %s (%s)", step.id, step.agent, step.action));
+                Map<String, Object> params = StepGraph.resolveStepReferences(step.params, stepResults);
+                String stepResult = executeAgentStep(step, params, context);
+                stepResults.put(step.id, stepResult);
+                return stepResult;
+            }), agentConfig.getStepExecutorService(step.agent));
+            futures.put(step.id, context.track(future));
+        }
+        
+        try {
+            context.await(CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])));
+        } catch (ExecutionException | TimeoutException e) {
+            context.checkNotAborted();
+            task.addLog("DAG执行失败: " + e.getMessage());
+            return "❌ DAG执行失败: " + e.getMessage();
+        }
+        
+        StringBuilder result = new StringBuilder();
+        for (LlmTaskStep step : ordered) {
+            result.append(String.format("【步骤%d - %s】\n%s\n\n", step.id, step.agent, stepResults.get(step.id)));
         }
         
         task.addLog("🎉 DAG调度执行完成");
@@ -229,25 +760,16 @@ public class EnhancedAgentOrchestrator {
     /**
      * 顺序执行steps，支持上一步结果依赖
      */
-    private String executeSequentialSteps(List<LlmTaskStep> steps, TaskExecution task) {
+    private String executeSequentialSteps(List<LlmTaskStep> steps, TaskContext context) {
+        TaskExecution task = context.getTask();
         StringBuilder result = new StringBuilder();
         String prevResult = null;
         for (int i = 0; i < steps.size(); i++) {
             LlmTaskStep step = steps.get(i);
-            Map<String, Object> params = new HashMap<>(step.params != null ? step.params : new HashMap<>());
-            
-            // 处理"上一步结果"依赖
-            for (Map.Entry<String, Object> entry : params.entrySet()) {
-                if (entry.getValue() instanceof String) {
-                    String value = (String) entry.getValue();
-                    if (value.contains("上一步结果") && prevResult != null) {
-                        params.put(entry.getKey(), value.replace("上一步结果", prevResult));
-                    }
-                }
-            }
+            Map<String, Object> params = StepGraph.resolvePreviousResult(step.params, prevResult);
             
             task.addLog(String.format("顺序执行第%d步: %s (%s)", i + 1, step.agent, step.action));
-            String stepResult = executeAgentStep(step, params, task);
+            String stepResult = executeAgentStep(step, params, context);
             result.append(String.format("【%s】\n%s\n\n", step.agent, stepResult));
             prevResult = stepResult;
         }
@@ -257,24 +779,27 @@ public class EnhancedAgentOrchestrator {
     /**
      * 并行执行steps
      */
-    private String executeParallelSteps(List<LlmTaskStep> steps, TaskExecution task) {
+    private String executeParallelSteps(List<LlmTaskStep> steps, TaskContext context) {
+        TaskExecution task = context.getTask();
         List<CompletableFuture<String>> futures = new ArrayList<>();
         for (int i = 0; i < steps.size(); i++) {
             LlmTaskStep step = steps.get(i);
-            CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> context.runGuarded(() -> {
                 Map<String, Object> params = new HashMap<>(step.params != null ? step.params : new HashMap<>());
                 task.addLog(String.format("并行执行: %s (%s)", step.agent, step.action));
-                return executeAgentStep(step, params, task);
-            }, executorService);
-            futures.add(future);
+                return executeAgentStep(step, params, context);
+            }), agentConfig.getStepExecutorService(step.agent));
+            futures.add(context.track(future));
         }
         StringBuilder result = new StringBuilder();
         try {
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            // 等待时间受任务剩余时间预算限制
+            context.await(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
             for (int i = 0; i < steps.size(); i++) {
                 result.append(String.format("【%s】\n%s\n\n", steps.get(i).agent, futures.get(i).get()));
             }
         } catch (Exception e) {
+            context.checkNotAborted();
             task.addLog("并行执行失败: " + e.getMessage());
             return "❌ 并行执行失败: " + e.getMessage();
         }
@@ -282,31 +807,191 @@ public class EnhancedAgentOrchestrator {
     }
     
     /**
-     * 按step action/参数调用Agent（支持多方法）
+     * 按step action/参数调用Agent（支持多方法）；映射步骤对列表参数的每一项各调用一次
      */
-    private String executeAgentStep(LlmTaskStep step, Map<String, Object> params, TaskExecution task) {
+    private String executeAgentStep(LlmTaskStep step, Map<String, Object> params, TaskContext context) {
+        // 任务已超时或被取消时不再发起新的调用
+        context.checkNotAborted();
+        String taskId = context.getTask().getTaskId();
+        webSocketService.pushStepStarted(taskId, step.id, step.agent, step.action);
+        String result;
+        boolean succeeded;
+        if (MapStepRunner.isMapStep(step)) {
+            // 各项并发执行，token 交错推送无法阅读，只推送步骤开始/完成
+            result = mapStepRunner.run(step, params, context, agentConfig.getStepExecutorService(step.agent),
+                itemParams -> timedAgentStep(step, itemParams, context, false));
+            succeeded = MapStepRunner.succeeded(result);
+        } else {
+            result = timedAgentStep(step, params, context, true);
+            succeeded = result != null && !result.startsWith("❌");
+        }
+        if (!succeeded) {
+            context.markStepFailed();
+        }
+        webSocketService.pushStepCompleted(taskId, step.id, step.agent, succeeded);
+        return result;
+    }
+    
+    /**
+     * 执行一次 Agent 调用并计入该 Agent 的步骤耗时估计（映射步骤按单项计）
+     */
+    private String timedAgentStep(LlmTaskStep step, Map<String, Object> params, TaskContext context, boolean streamTokens) {
+        long started = System.nanoTime();
+        String result = runAgentStep(step, params, context, streamTokens);
+        stepLatencies.record(step.agent, System.nanoTime() - started);
+        return result;
+    }
+    
+    private String runAgentStep(LlmTaskStep step, Map<String, Object> params, TaskContext context, boolean streamTokens) {
+        TaskExecution task = context.getTask();
         SpecializedAgent agent = agents.get(step.agent);
         if (agent == null) {
             task.addLog("❌ 未找到合适的Agent: " + step.agent);
             return "❌ 未找到合适的Agent: " + step.agent;
         }
+        StepResultCache.Key cacheKey = stepResultCache.keyFor(step.agent, step.action, params);
+        String cached = stepResultCache.get(cacheKey);
+        if (cached != null) {
+            task.addLog(String.format("♻️ 步骤结果缓存命中: %s (%s)", step.agent, step.action));
+            return cached;
+        }
         try {
-            // 支持多方法调用
-            return agent.execute(step.action, params);
+            // 结构化步骤能直接绑定到工具方法时跳过 Agent 的 LLM 调用
+            String result = toolDispatcher.tryInvoke(step.agent, step.action, params);
+            if (result != null) {
+                task.addLog(String.format("⚡ 直接调用工具: %s.%s", step.agent, step.action));
+            } else if (streamAgentSteps && streamTokens) {
+                // 自由文本步骤走流式模型，token 合并成小帧后按任务推送
+                try (TokenFrameCoalescer frames = new TokenFrameCoalescer(
+                        text -> webSocketService.pushTaskTokens(task.getTaskId(), step.id, step.agent, text),
+                        agentConfig.getStreamingFrameMaxChars(),
+                        agentConfig.getStreamingFrameIntervalMs(),
+                        agentConfig.getDeadlineScheduler())) {
+                    result = agent.execute(step.action, params, frames::append);
+                }
+            } else {
+                // 支持多方法调用
+                result = agent.execute(step.action, params);
+            }
+            stepResultCache.put(cacheKey, result);
+            return result;
         } catch (Exception e) {
             task.addLog("Agent执行失败: " + e.getMessage());
             return "❌ Agent执行失败: " + e.getMessage();
+        } finally {
+            stepResultCache.afterExecution(cacheKey);
         }
     }
     
     /**
      * LLM结构化意图解析，返回完整plan（支持复杂参数和依赖）
+     * 配置了规划时间预算时，规划在步骤线程池中执行，超出预算即放弃等待；
+     * 超时的规划继续在后台完成并写入缓存，之后相同的输入可以直接命中
+     *
+     * @return 规划失败或超出预算时返回 null，由调用方改用兜底规划
      */
-    private LlmTaskPlan analyzeTaskWithLLM(String userInput) {
-        String prompt = String.format("""
+    private LlmTaskPlan analyzeTaskWithLLM(String userInput, TaskContext context) {
+        if (plannerBudgetMillis <= 0) {
+            return requestPlan(userInput);
+        }
+        CompletableFuture<LlmTaskPlan> planning = context.track(CompletableFuture.supplyAsync(
+            () -> TokenUsageTracker.track(context::addTokenUsage, () -> requestPlan(userInput)),
+            agentConfig.getStepExecutorService()));
+        try {
+            return context.await(planning, TimeUnit.MILLISECONDS.toNanos(plannerBudgetMillis));
+        } catch (TimeoutException e) {
+            context.checkNotAborted();
+            context.getTask().addLog(String.format("⏱️ 任务规划超过 %d 毫秒预算，改用兜底规划", plannerBudgetMillis));
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 调用模型生成规划，成功时写入规划缓存；调用或解析失败时返回 null
+     */
+    private LlmTaskPlan requestPlan(String userInput) {
+        try {
+            String response = model.chat(UserMessage.from(buildPlanningPrompt(userInput))).aiMessage().text();
+            // 尝试提取JSON部分
+            String jsonStr = extractJsonFromResponse(response);
+            LlmTaskPlan plan = objectMapper.readValue(jsonStr, LlmTaskPlan.class);
+            if (plan.steps != null && !plan.steps.isEmpty()) {
+                planCache.put(userInput, plan);
+            }
+            return plan;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 流式任务规划：边接收模型输出边解析，每个步骤生成完毕就交给增量调度器，顶层对象闭合即结束规划
+     * 规划格式错误、生成失败或超出时间预算时放弃已派发的步骤并返回 null，由调用方改用兜底规划
+     */
+    private LlmTaskPlan analyzeTaskWithStreamingLLM(String userInput, IncrementalPlanScheduler scheduler, TaskContext context) {
+        CompletableFuture<LlmTaskPlan> planned = new CompletableFuture<>();
+        // 超出预算后模型仍在生成，完整的规划照样写入缓存
+        planned.thenAccept(plan -> {
+            if (plan.steps != null && !plan.steps.isEmpty()) {
+                planCache.put(userInput, plan);
+            }
+        });
+        try {
+            IncrementalPlanParser parser = new IncrementalPlanParser(objectMapper, scheduler::offer);
+            streamingModel.chat(buildPlanningPrompt(userInput), new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    if (planned.isDone()) {
+                        return;
+                    }
+                    try {
+                        if (parser.feed(partialResponse)) {
+                            planned.complete(parser.finish());
+                        }
+                    } catch (Exception e) {
+                        planned.completeExceptionally(e);
+                    }
+                }
+                
+                @Override
+                public void onCompleteResponse(ChatResponse completeResponse) {
+                    try {
+                        planned.complete(parser.finish());
+                    } catch (Exception e) {
+                        planned.completeExceptionally(e);
+                    }
+                }
+                
+                @Override
+                public void onError(Throwable error) {
+                    planned.completeExceptionally(error);
+                }
+            });
+            return plannerBudgetMillis > 0
+                ? context.await(planned, TimeUnit.MILLISECONDS.toNanos(plannerBudgetMillis))
+                : context.await(planned);
+        } catch (Exception e) {
+            int dispatched = scheduler.abandon();
+            if (e instanceof TimeoutException && !context.isAborted()) {
+                context.getTask().addLog(String.format("⏱️ 任务规划超过 %d 毫秒预算，改用兜底规划", plannerBudgetMillis));
+            }
+            if (dispatched > 0) {
+                context.getTask().addLog(String.format("⚠️ 流式规划未完成，已放弃提前派发的 %d 个步骤", dispatched));
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 任务规划提示词
+     */
+    private String buildPlanningPrompt(String userInput) {
+        return String.format("""
             分析用户输入，输出JSON格式的任务规划。用户输入: %s
             
-            Agent类型: calculator(数学), weather(天气), time(时间), search(搜索), translator(翻译), file(文件)
+            Agent类型: calculator(数学), weather(天气), time(时间), search(搜索), translator(翻译), file(文件), assistant(汇总、比较多个结果)
             
             输出格式示例:
             {
@@ -318,27 +1003,42 @@ public class EnhancedAgentOrchestrator {
               "collaboration": "sequential"
             }
             
+            对多个对象执行同一操作时使用映射步骤，不要为每个对象单独生成步骤：params 中用数组给出全部对象，
+            map_over 填该参数名，系统对每一项各执行一次；需要汇总时再加一个依赖它的步骤，用 step:N 引用全部结果:
+            {
+              "description": "比较三个城市的天气",
+              "steps": [
+                {"id": 1, "agent": "weather", "action": "getWeather", "params": {"city": ["北京", "上海", "广州"]}, "map_over": "city"},
+                {"id": 2, "agent": "assistant", "action": "比较各城市的天气，指出最暖和的城市", "params": {"results": "step:1"}, "depends_on": [1]}
+              ],
+              "collaboration": "sequential"
+            }
+            
             只输出JSON，不要其他内容。
             """, userInput);
-        try {
-            String response = model.chat(UserMessage.from(prompt)).aiMessage().text();
-            // 尝试提取JSON部分
-            String jsonStr = extractJsonFromResponse(response);
-            return objectMapper.readValue(jsonStr, LlmTaskPlan.class);
-        } catch (Exception e) {
-            // fallback: 兜底为search
-            LlmTaskPlan fallback = new LlmTaskPlan();
-            fallback.description = "任务分析失败";
-            LlmTaskStep step = new LlmTaskStep();
-            step.id = 1;
-            step.agent = "search";
-            step.action = "search";
-            step.params = new HashMap<>();
-            step.params.put("query", userInput);
-            fallback.steps = List.of(step);
-            fallback.collaboration = "sequential";
-            return fallback;
+    }
+    
+    /**
+     * 规划失败时优先按关键词路由结果执行，没有命中任何关键词时兜底为search（兜底规划不写入缓存）
+     */
+    private LlmTaskPlan fallbackPlan(String userInput, KeywordRouter.Route route) {
+        if (route != null && !route.isEmpty()) {
+            keywordRouter.recordFallback();
+            LlmTaskPlan routed = route.toPlan(userInput);
+            routed.description = "任务分析失败，" + routed.description;
+            return routed;
         }
+        LlmTaskPlan fallback = new LlmTaskPlan();
+        fallback.description = "任务分析失败";
+        LlmTaskStep step = new LlmTaskStep();
+        step.id = 1;
+        step.agent = "search";
+        step.action = "search";
+        step.params = new HashMap<>();
+        step.params.put("query", userInput);
+        fallback.steps = List.of(step);
+        fallback.collaboration = "sequential";
+        return fallback;
     }
     
     /**
@@ -358,14 +1058,26 @@ public class EnhancedAgentOrchestrator {
      * 获取任务状态
      */
     public TaskExecution getTaskStatus(String taskId) {
-        return activeTasks.get(taskId);
+        return taskStore.get(taskId);
+    }
+    
+    /**
+     * 等待任务状态变化（长轮询），等待期间不占用线程
+     *
+     * @param knownStatus 调用方已知的状态，任务状态不再是该值时 future 完成；任务已结束时立即完成
+     */
+    public CompletableFuture<TaskExecution> awaitStatusChange(TaskExecution task, String knownStatus) {
+        if (task.isFinished()) {
+            return CompletableFuture.completedFuture(task);
+        }
+        return taskWaiters.await(task, knownStatus);
     }
     
     /**
      * 获取所有活跃任务
      */
     public List<TaskExecution> getAllActiveTasks() {
-        return new ArrayList<>(activeTasks.values());
+        return taskStore.list();
     }
     
     /**
@@ -382,8 +1094,12 @@ public class EnhancedAgentOrchestrator {
     /**
      * 关闭编排器
      */
+    @PreDestroy
     public void shutdown() {
         agentConfig.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
     }
     
     // Agent 接口定义
@@ -411,19 +1127,12 @@ public class EnhancedAgentOrchestrator {
         String chat(String userInput);
     }
     
-    // LLM结构化输出的任务规划对象（升级版）
-    private static class LlmTaskPlan {
-        public String description;
-        public List<LlmTaskStep> steps;
-        public String collaboration;
+    public interface AssistantAgent {
+        String chat(String userInput);
     }
     
-    private static class LlmTaskStep {
-        public int id;
-        public String agent;
-        public String action;
-        public Map<String, Object> params; // 支持任意参数
-        public List<Integer> depends_on; // 支持依赖关系
+    public interface StreamingAgent {
+        TokenStream chat(String userInput);
     }
     
     // 内部类
@@ -446,44 +1155,23 @@ public class EnhancedAgentOrchestrator {
     private static class SpecializedAgent {
         private final String name;
         private final String description;
-        private final Object agentInstance;
+        private final AgentInvoker invoker;
         
-        public SpecializedAgent(String name, String description, Object agentInstance) {
+        public SpecializedAgent(String name, String description, AgentInvoker invoker) {
             this.name = name;
             this.description = description;
-            this.agentInstance = agentInstance;
+            this.invoker = invoker;
         }
         
         public String getName() { return name; }
         public String getDescription() { return description; }
         
         public String execute(String action, Map<String, Object> params) throws Exception {
-            try {
-                // 尝试调用带action和params的方法
-                return (String) agentInstance.getClass()
-                    .getMethod("chat", String.class, Map.class)
-                    .invoke(agentInstance, action, params);
-            } catch (NoSuchMethodException e) {
-                // 如果方法不存在，fallback到原来的chat(String)方法
-                // 将params转换为字符串输入
-                String input = buildInputFromParams(action, params);
-                return (String) agentInstance.getClass()
-                    .getMethod("chat", String.class)
-                    .invoke(agentInstance, input);
-            }
+            return invoker.invoke(action, params);
         }
         
-        private String buildInputFromParams(String action, Map<String, Object> params) {
-            if (params == null || params.isEmpty()) {
-                return action;
-            }
-            
-            StringBuilder input = new StringBuilder();
-            input.append("Action: ").append(action).append("\n");
-            for (Map.Entry<String, Object> entry : params.entrySet()) {
-                input.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
-            }
-            return input.toString();
+        public String execute(String action, Map<String, Object> params, Consumer<String> onToken) throws Exception {
+            return invoker.invoke(action, params, onToken);
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,27 @@
+package agent;
+
+import java.util.Locale;
+
+/**
+ * 任务执行方式
+ */
+public enum ExecutionMode {
+    /** 按规划缓存、模板、关键词路由和输入长度自动选择 */
+    AUTO,
+    /** 总是经过规划（缓存、模板、路由或 LLM 规划）后按步骤执行 */
+    PLANNED,
+    /** 不做规划，由挂载全部工具的通用助手一次调用直接回答 */
+    SINGLE_SHOT;
+
+    /**
+     * 解析请求中的执行方式（auto / planned / single-shot），为空时为 AUTO
+     *
+     * @throws IllegalArgumentException 无法识别的取值
+     */
+    public static ExecutionMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return AUTO;
+        }
+        return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,122 @@
+package agent;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 增量任务规划解析器
+ * 将规划模型流式输出的片段喂给 Jackson 非阻塞解析器，steps 数组中每个元素一闭合就回调 onStep，
+ * 顶层对象闭合后即视为规划完成，之后到达的内容全部忽略
+ */
+class IncrementalPlanParser {
+
+    private final ObjectMapper objectMapper;
+    private final Consumer<LlmTaskStep> onStep;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final TokenBuffer root;
+    private TokenBuffer stepBuffer;
+    private String rootField;
+    private int depth;
+    private boolean started;
+    private boolean inSteps;
+    private boolean complete;
+
+    IncrementalPlanParser(ObjectMapper objectMapper, Consumer<LlmTaskStep> onStep) throws IOException {
+        this.objectMapper = objectMapper;
+        this.onStep = onStep;
+        this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.root = new TokenBuffer(parser);
+    }
+
+    /**
+     * 喂入一段模型输出
+     *
+     * @return 顶层对象是否已经闭合
+     */
+    boolean feed(String chunk) throws IOException {
+        if (complete || chunk == null || chunk.isEmpty()) {
+            return complete;
+        }
+        if (!started) {
+            // 与 extractJsonFromResponse 一致：跳过第一个 { 之前的内容（如 ```json 前缀）
+            int start = chunk.indexOf('{');
+            if (start < 0) {
+                return false;
+            }
+            started = true;
+            chunk = chunk.substring(start);
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+        JsonToken token;
+        while (!complete && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            root.copyCurrentEvent(parser);
+            handle(token);
+        }
+        return complete;
+    }
+
+    /**
+     * 模型输出结束后取得完整规划，顶层对象未闭合时视为格式错误
+     */
+    LlmTaskPlan finish() throws IOException {
+        if (!complete) {
+            throw new IOException("任务规划JSON不完整");
+        }
+        return objectMapper.readValue(root.asParser(), LlmTaskPlan.class);
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+            case START_ARRAY:
+                depth++;
+                if (depth == 2 && token == JsonToken.START_ARRAY && "steps".equals(rootField)) {
+                    inSteps = true;
+                } else if (depth == 3 && inSteps && token == JsonToken.START_OBJECT) {
+                    stepBuffer = new TokenBuffer(parser);
+                }
+                copyToStep();
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                copyToStep();
+                if (depth == 3 && stepBuffer != null) {
+                    onStep.accept(objectMapper.readValue(stepBuffer.asParser(), LlmTaskStep.class));
+                    stepBuffer = null;
+                }
+                depth--;
+                if (depth == 1) {
+                    inSteps = false;
+                } else if (depth == 0) {
+                    complete = true;
+                    feeder.endOfInput();
+                }
+                break;
+            case FIELD_NAME:
+                if (depth == 1) {
+                    rootField = parser.getCurrentName();
+                }
+                copyToStep();
+                break;
+            default:
+                copyToStep();
+                break;
+        }
+    }
+
+    private void copyToStep() throws IOException {
+        if (stepBuffer != null) {
+            stepBuffer.copyCurrentEvent(parser);
+        }
+    }
+}
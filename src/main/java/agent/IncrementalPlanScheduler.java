@@ -0,0 +1,278 @@
+package agent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 流式规划的增量步骤调度器
+ * 规划仍在生成时就派发可以确定执行方式的步骤：第一个无依赖步骤在任何协作模式下都可立即执行；
+ * 一旦出现声明了 depends_on 的步骤，规划必然按 DAG 执行，依赖已派发的步骤随即派发。
+ * 规划生成完成后，按最终的协作模式派发剩余步骤，结果格式与批量执行一致。
+ * 文件步骤等有副作用的步骤在规划放弃后会按兜底规划重新执行，因此不提前派发；
+ * 提前派发使用拒绝式线程池视图，线程池饱和时不在模型回调线程上执行，留到规划完成后再派发
+ */
+class IncrementalPlanScheduler {
+
+    private final TaskContext context;
+    private final Function<String, Executor> executorFor;
+    private final Function<String, Executor> earlyExecutorFor;
+    private final BiFunction<LlmTaskStep, Map<String, Object>, String> runner;
+    // 所有派发的步骤属于同一组，放弃规划时只中断这些步骤
+    private final TaskContext.WorkGroup work;
+    private final List<LlmTaskStep> steps = new ArrayList<>();
+    // 按步骤在规划中的位置索引，顺序/并行模式下步骤ID可能重复
+    private final Map<Integer, CompletableFuture<String>> futures = new ConcurrentHashMap<>();
+    private final Map<Integer, Dispatch> dispatches = new HashMap<>();
+    private final Map<Integer, Integer> indexById = new HashMap<>();
+    private final Map<Integer, String> stepResults = new ConcurrentHashMap<>();
+    private final Map<Integer, String> resultsByIndex = new ConcurrentHashMap<>();
+    private boolean dag;
+    private boolean duplicateIds;
+    private boolean planComplete;
+    private volatile boolean abandoned;
+
+    /**
+     * @param executorFor 规划完成后派发步骤使用的线程池
+     * @param earlyExecutorFor 规划生成中提前派发使用的线程池，饱和时应拒绝而不是由提交线程执行
+     */
+    IncrementalPlanScheduler(TaskContext context, Function<String, Executor> executorFor,
+                             Function<String, Executor> earlyExecutorFor,
+                             BiFunction<LlmTaskStep, Map<String, Object>, String> runner) {
+        this.context = context;
+        this.executorFor = executorFor;
+        this.earlyExecutorFor = earlyExecutorFor;
+        this.runner = runner;
+        this.work = context.newWorkGroup();
+    }
+
+    /**
+     * 规划中又一个步骤生成完毕
+     */
+    synchronized void offer(LlmTaskStep step) {
+        if (abandoned || planComplete) {
+            return;
+        }
+        int index = steps.size();
+        steps.add(step);
+        if (indexById.putIfAbsent(step.id, index) != null) {
+            duplicateIds = true;
+        }
+        boolean hasDependencies = !StepGraph.dependenciesOf(step).isEmpty();
+        dag |= hasDependencies;
+        // ID 重复时不再提前派发，交给完整规划统一校验
+        if (duplicateIds) {
+            return;
+        }
+        if (index == 0 && !hasDependencies && !StepGraph.hasSideEffects(step)) {
+            dispatch(0, new Dispatch(Collections.emptyList(), () -> copyParams(step),
+                String.format("⚡ 规划生成中提前执行步骤 %d: %s (%s)", step.id, step.agent, step.action)), true);
+        }
+        if (dag) {
+            dispatchReadyDagSteps();
+        }
+    }
+
+    /**
+     * 放弃本次规划：尚未开始的步骤不再执行，正在执行的步骤被中断，结果被丢弃
+     *
+     * @return 已提前派发的步骤数
+     */
+    synchronized int abandon() {
+        abandoned = true;
+        work.cancel();
+        futures.values().forEach(future -> future.cancel(false));
+        return futures.size();
+    }
+
+    /**
+     * 规划生成完成：按最终的协作模式派发剩余步骤并等待全部完成
+     *
+     * @return 汇总结果；规划与已接收的步骤不一致时返回 null，由调用方按批量方式执行
+     */
+    String finish(LlmTaskPlan plan) {
+        TaskExecution task = context.getTask();
+        List<LlmTaskStep> order;
+        String mode;
+        synchronized (this) {
+            planComplete = true;
+            // 已放弃（规划失败或超出时间预算）时 plan 是回退规划，与已接收的步骤无关
+            if (abandoned || plan.steps == null || plan.steps.size() != steps.size()) {
+                abandon();
+                return null;
+            }
+            if (dag) {
+                mode = "DAG";
+                task.addLog("开始DAG调度执行，共 " + steps.size() + " 个步骤");
+                try {
+                    order = StepGraph.topologicalSort(steps);
+                } catch (IllegalArgumentException e) {
+                    abandon();
+                    task.addLog("❌ " + e.getMessage());
+                    return "❌ " + e.getMessage();
+                }
+                for (LlmTaskStep step : order) {
+                    int index = indexById.get(step.id);
+                    if (!futures.containsKey(index)) {
+                        dispatchDagStep(index, String.format("执行步骤 %d: %s (%s)", step.id, step.agent, step.action), false);
+                    } else {
+                        retryIfRejected(index);
+                    }
+                }
+            } else if ("parallel".equalsIgnoreCase(plan.collaboration)) {
+                mode = "并行";
+                order = steps;
+                for (int i = 0; i < steps.size(); i++) {
+                    LlmTaskStep step = steps.get(i);
+                    if (!futures.containsKey(i)) {
+                        dispatch(i, new Dispatch(Collections.emptyList(), () -> copyParams(step),
+                            String.format("并行执行: %s (%s)", step.agent, step.action)), false);
+                    } else {
+                        retryIfRejected(i);
+                    }
+                }
+            } else {
+                mode = "顺序";
+                order = steps;
+                for (int i = 0; i < steps.size(); i++) {
+                    LlmTaskStep step = steps.get(i);
+                    if (!futures.containsKey(i)) {
+                        int previous = i - 1;
+                        dispatch(i, new Dispatch(previous < 0 ? Collections.emptyList() : List.of(previous),
+                            () -> StepGraph.resolvePreviousResult(step.params, previous < 0 ? null : resultsByIndex.get(previous)),
+                            String.format("顺序执行第%d步: %s (%s)", i + 1, step.agent, step.action)), false);
+                    } else {
+                        retryIfRejected(i);
+                    }
+                }
+            }
+        }
+
+        try {
+            context.await(CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])));
+        } catch (ExecutionException | TimeoutException e) {
+            context.checkNotAborted();
+            task.addLog(mode + "执行失败: " + e.getMessage());
+            return "❌ " + mode + "执行失败: " + e.getMessage();
+        }
+
+        StringBuilder result = new StringBuilder();
+        if (dag) {
+            for (LlmTaskStep step : order) {
+                result.append(String.format("【步骤%d - %s】\n%s\n\n", step.id, step.agent, stepResults.get(step.id)));
+            }
+            task.addLog("🎉 DAG调度执行完成");
+        } else {
+            for (int i = 0; i < order.size(); i++) {
+                result.append(String.format("【%s】\n%s\n\n", order.get(i).agent, futures.get(i).join()));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * 派发所有依赖均已派发的 DAG 步骤，直到没有新的可派发步骤；有副作用的步骤及依赖它的步骤留到规划完成后
+     */
+    private void dispatchReadyDagSteps() {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < steps.size(); i++) {
+                LlmTaskStep step = steps.get(i);
+                if (!futures.containsKey(i) && !StepGraph.hasSideEffects(step) && dependenciesDispatched(step)) {
+                    dispatchDagStep(i, String.format("⚡ 规划生成中提前执行步骤 %d: %s (%s)", step.id, step.agent, step.action), true);
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    private boolean dependenciesDispatched(LlmTaskStep step) {
+        for (Integer depId : StepGraph.dependenciesOf(step)) {
+            Integer depIndex = indexById.get(depId);
+            if (depIndex == null || !futures.containsKey(depIndex)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatchDagStep(int index, String log, boolean early) {
+        LlmTaskStep step = steps.get(index);
+        List<Integer> dependencies = new ArrayList<>();
+        for (Integer depId : StepGraph.dependenciesOf(step)) {
+            dependencies.add(indexById.get(depId));
+        }
+        dispatch(index, new Dispatch(dependencies, () -> StepGraph.resolveStepReferences(step.params, stepResults), log), early);
+    }
+
+    private void dispatch(int index, Dispatch dispatch, boolean early) {
+        dispatches.put(index, dispatch);
+        futures.put(index, context.track(launch(index, early)));
+    }
+
+    /**
+     * 按记录的派发方式执行步骤，依赖取当前登记的 future（可能已是重新派发的）
+     */
+    private CompletableFuture<String> launch(int index, boolean early) {
+        LlmTaskStep step = steps.get(index);
+        Dispatch dispatch = dispatches.get(index);
+        TaskExecution task = context.getTask();
+        CompletableFuture<?>[] dependencies = dispatch.dependencies.stream()
+            .map(futures::get)
+            .toArray(CompletableFuture[]::new);
+        Executor executor = (early ? earlyExecutorFor : executorFor).apply(step.agent);
+        return CompletableFuture.allOf(dependencies)
+            .thenApplyAsync(ignored -> work.run(() -> {
+                if (abandoned) {
+                    throw new CancellationException("任务规划已放弃");
+                }
+                task.addLog(dispatch.log);
+                String stepResult = runner.apply(step, dispatch.params.get());
+                stepResults.put(step.id, stepResult);
+                resultsByIndex.put(index, stepResult);
+                return stepResult;
+            }), executor);
+    }
+
+    /**
+     * 提前派发的步骤因线程池饱和被拒绝（或依赖被拒绝而未执行）时，规划完成后按普通方式重新派发；
+     * 调用方按依赖顺序处理，重新派发时依赖已替换为新的 future
+     */
+    private void retryIfRejected(int index) {
+        CompletableFuture<String> early = futures.get(index);
+        futures.put(index, context.track(early.exceptionallyCompose(error -> isRejected(error)
+            ? launch(index, false)
+            : CompletableFuture.failedFuture(error))));
+    }
+
+    private static boolean isRejected(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Object> copyParams(LlmTaskStep step) {
+        return new HashMap<>(step.params != null ? step.params : new HashMap<>());
+    }
+
+    /**
+     * 步骤的派发方式：依赖的步骤位置、参数解析和日志
+     */
+    private static final class Dispatch {
+        private final List<Integer> dependencies;
+        private final Supplier<Map<String, Object>> params;
+        private final String log;
+
+        Dispatch(List<Integer> dependencies, Supplier<Map<String, Object>> params, String log) {
+            this.dependencies = dependencies;
+            this.params = params;
+            this.log = log;
+        }
+    }
+}
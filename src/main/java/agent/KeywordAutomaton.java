@@ -0,0 +1,185 @@
+package agent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * 多模式关键词匹配（Aho-Corasick 自动机）
+ * 构建时把全部关键词编译为带失败指针的状态机，匹配时对输入只扫描一遍，耗时与关键词数量无关。
+ * 构建完成后只读，可被多个线程并发使用
+ *
+ * @param <T> 关键词关联的值，同一关键词可关联多个值
+ */
+final class KeywordAutomaton<T> {
+
+    // 状态 -> 按字符排序的出边，匹配时二分查找
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    // 状态 -> 以该状态结尾的关键词（含经失败指针可达的后缀关键词）
+    private final List<List<Match<T>>> outputs;
+
+    private KeywordAutomaton(char[][] labels, int[][] targets, int[] fail, List<List<Match<T>>> outputs) {
+        this.labels = labels;
+        this.targets = targets;
+        this.fail = fail;
+        this.outputs = outputs;
+    }
+
+    /**
+     * 编译关键词表，空关键词被忽略
+     */
+    static <T> KeywordAutomaton<T> compile(Map<String, ? extends Iterable<T>> keywords) {
+        List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        List<List<Match<T>>> outputs = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        outputs.add(new ArrayList<>());
+        keywords.forEach((keyword, values) -> {
+            if (keyword == null || keyword.isEmpty()) {
+                return;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = edges.get(state).get(keyword.charAt(i));
+                if (next == null) {
+                    next = edges.size();
+                    edges.get(state).put(keyword.charAt(i), next);
+                    edges.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            for (T value : values) {
+                outputs.get(state).add(new Match<>(keyword, value));
+            }
+        });
+
+        int size = edges.size();
+        char[][] labels = new char[size][];
+        int[][] targets = new int[size][];
+        for (int state = 0; state < size; state++) {
+            TreeMap<Character, Integer> out = edges.get(state);
+            labels[state] = new char[out.size()];
+            targets[state] = new int[out.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : out.entrySet()) {
+                labels[state][i] = edge.getKey();
+                targets[state][i++] = edge.getValue();
+            }
+        }
+
+        // 按层次遍历计算失败指针，并把后缀关键词合并到当前状态的输出中
+        int[] fail = new int[size];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < labels[state].length; i++) {
+                char c = labels[state][i];
+                int child = targets[state][i];
+                int f = fail[state];
+                int next;
+                while ((next = step(labels, targets, f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next >= 0 ? next : 0;
+                outputs.get(child).addAll(outputs.get(fail[child]));
+                queue.add(child);
+            }
+        }
+
+        List<List<Match<T>>> frozen = new ArrayList<>(size);
+        for (List<Match<T>> out : outputs) {
+            frozen.add(out.isEmpty() ? Collections.emptyList() : List.copyOf(out));
+        }
+        return new KeywordAutomaton<>(labels, targets, fail, frozen);
+    }
+
+    /**
+     * 便捷构建：每个值对应一组关键词
+     */
+    static <T> KeywordAutomaton<T> compileGroups(Map<T, ? extends Iterable<String>> groups) {
+        Map<String, List<T>> keywords = new HashMap<>();
+        groups.forEach((value, words) -> {
+            for (String word : words) {
+                keywords.computeIfAbsent(word, k -> new ArrayList<>()).add(value);
+            }
+        });
+        return compile(keywords);
+    }
+
+    /**
+     * 扫描输入，按结束位置顺序回调每一个匹配（包括相互重叠的匹配）
+     */
+    void scan(CharSequence text, MatchListener<T> listener) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = step(labels, targets, state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next >= 0 ? next : 0;
+            for (Match<T> match : outputs.get(state)) {
+                listener.onMatch(i + 1 - match.keyword.length(), i + 1, match.keyword, match.value);
+            }
+        }
+    }
+
+    /**
+     * 收集全部匹配
+     */
+    List<Hit<T>> findAll(CharSequence text) {
+        List<Hit<T>> hits = new ArrayList<>();
+        scan(text, (start, end, keyword, value) -> hits.add(new Hit<>(start, end, keyword, value)));
+        return hits;
+    }
+
+    int stateCount() { return fail.length; }
+
+    private static int step(char[][] labels, int[][] targets, int state, char c) {
+        int i = Arrays.binarySearch(labels[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    @FunctionalInterface
+    interface MatchListener<T> {
+        void onMatch(int start, int end, String keyword, T value);
+    }
+
+    /**
+     * 一次匹配：关键词在输入中的区间 [start, end)
+     */
+    static final class Hit<T> {
+        final int start;
+        final int end;
+        final String keyword;
+        final T value;
+
+        Hit(int start, int end, String keyword, T value) {
+            this.start = start;
+            this.end = end;
+            this.keyword = keyword;
+            this.value = value;
+        }
+    }
+
+    private static final class Match<T> {
+        private final String keyword;
+        private final T value;
+
+        Match(String keyword, T value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 关键词预路由
+ * 规划前先用关键词自动机识别输入涉及的 Agent：只命中一种意图且没有“然后/再”之类的多步标记时，
+ * 直接生成单步规划交给该 Agent，跳过 LLM 规划调用；多意图或没有命中的输入仍交给 LLM 规划。
+ * 规划失败或超出时间预算时，同样按路由结果生成尽力而为的规划
+ */
+class KeywordRouter {
+
+    // 多步标记在自动机中的占位值，与 Agent 名称不会冲突
+    private static final String SEQUENCE_MARKER = "#sequence";
+
+    private final KeywordAutomaton<String> automaton;
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong planned = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param keywords Agent 名称 -> 关键词
+     * @param sequenceMarkers 表示输入包含多个先后步骤的连接词
+     */
+    KeywordRouter(Map<String, String[]> keywords, String[] sequenceMarkers) {
+        Map<String, List<String>> groups = new HashMap<>();
+        keywords.forEach((agent, words) -> groups.put(agent, normalizeAll(words)));
+        groups.put(SEQUENCE_MARKER, normalizeAll(sequenceMarkers));
+        this.automaton = KeywordAutomaton.compileGroups(groups);
+    }
+
+    /**
+     * 识别输入中的意图
+     */
+    Route route(String userInput) {
+        Set<String> intents = new LinkedHashSet<>();
+        boolean[] sequence = new boolean[1];
+        automaton.scan(PlanCache.normalize(userInput), (start, end, keyword, agent) -> {
+            if (SEQUENCE_MARKER.equals(agent)) {
+                sequence[0] = true;
+            } else {
+                intents.add(agent);
+            }
+        });
+        return new Route(new ArrayList<>(intents), sequence[0]);
+    }
+
+    /**
+     * 记录一次路由决策，用于统计直接路由的比例
+     */
+    void record(Route route) {
+        (route.isConfident() ? routed : planned).incrementAndGet();
+    }
+
+    /**
+     * 记录一次规划失败后改用路由结果
+     */
+    void recordFallback() {
+        fallbacks.incrementAndGet();
+    }
+
+    long getRouted() { return routed.get(); }
+
+    long getPlanned() { return planned.get(); }
+
+    long getFallbacks() { return fallbacks.get(); }
+
+    private static List<String> normalizeAll(String[] words) {
+        List<String> normalized = new ArrayList<>();
+        if (words != null) {
+            Arrays.stream(words)
+                .map(PlanCache::normalize)
+                .filter(word -> !word.isEmpty())
+                .forEach(normalized::add);
+        }
+        return normalized;
+    }
+
+    /**
+     * 路由结果：按首次出现顺序排列的意图
+     */
+    static final class Route {
+        private final List<String> intents;
+        private final boolean sequence;
+
+        Route(List<String> intents, boolean sequence) {
+            this.intents = intents;
+            this.sequence = sequence;
+        }
+
+        List<String> getIntents() { return intents; }
+
+        /**
+         * 只有一种意图且没有多步标记时可以跳过 LLM 规划
+         */
+        boolean isConfident() {
+            return intents.size() == 1 && !sequence;
+        }
+
+        boolean isEmpty() {
+            return intents.isEmpty();
+        }
+
+        /**
+         * 输入中出现了“然后/再”之类的多步标记
+         */
+        boolean hasSequence() {
+            return sequence;
+        }
+
+        /**
+         * 生成规划：每个命中的 Agent 一个步骤，动作即用户原文，Agent 直接以原文对话；
+         * 多个意图时并行执行，各 Agent 只回答与自己相关的部分
+         */
+        LlmTaskPlan toPlan(String userInput) {
+            LlmTaskPlan plan = new LlmTaskPlan();
+            plan.description = "关键词路由: " + String.join(", ", intents);
+            plan.steps = new ArrayList<>(intents.size());
+            for (String agent : intents) {
+                LlmTaskStep step = new LlmTaskStep();
+                step.id = plan.steps.size() + 1;
+                step.agent = agent;
+                step.action = userInput;
+                step.params = new HashMap<>();
+                plan.steps.add(step);
+            }
+            plan.collaboration = intents.size() > 1 ? "parallel" : "sequential";
+            return plan;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LLM结构化输出的任务规划对象
+ */
+class LlmTaskPlan {
+    public String description;
+    public List<LlmTaskStep> steps;
+    public String collaboration;
+    
+    /**
+     * 深拷贝，供缓存返回独立副本
+     */
+    LlmTaskPlan copy() {
+        LlmTaskPlan copy = new LlmTaskPlan();
+        copy.description = description;
+        copy.collaboration = collaboration;
+        if (steps != null) {
+            copy.steps = new ArrayList<>(steps.size());
+            for (LlmTaskStep step : steps) {
+                copy.steps.add(step.copy());
+            }
+        }
+        return copy;
+    }
+}
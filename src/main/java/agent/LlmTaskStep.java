@@ -0,0 +1,29 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务规划中的单个步骤
+ */
+class LlmTaskStep {
+    public int id;
+    public String agent;
+    public String action;
+    public Map<String, Object> params; // 支持任意参数
+    public List<Integer> depends_on; // 支持依赖关系
+    public String map_over; // 映射步骤：对该列表参数的每一项各执行一次
+    
+    LlmTaskStep copy() {
+        LlmTaskStep copy = new LlmTaskStep();
+        copy.id = id;
+        copy.agent = agent;
+        copy.action = action;
+        copy.params = params != null ? new LinkedHashMap<>(params) : null;
+        copy.depends_on = depends_on != null ? new ArrayList<>(depends_on) : null;
+        copy.map_over = map_over;
+        return copy;
+    }
+}
@@ -0,0 +1,172 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 映射步骤（map）的执行
+ * 步骤的 map_over 指向一个列表参数，同一 agent/action 对列表中的每一项各执行一次（该参数替换为单项），
+ * 规划大小不随列表长度增长。各项由当前线程和至多 maxParallelism-1 个步骤线程共同领取执行，
+ * 线程池饱和时当前线程独自完成，只等待已开始的辅助线程，不会因等待排队中的子任务而饿死；结果按列表顺序合并为一个步骤结果，
+ * 后续步骤以 step:N 引用即可汇总（reduce）
+ */
+final class MapStepRunner {
+
+    // 列表参数引用了上一步的文本结果时，按行拆分；只有一行时按常见分隔符拆分
+    private static final Pattern LINES = Pattern.compile("\\R+");
+    private static final Pattern SEPARATORS = Pattern.compile("[,，、;；]+");
+
+    private final int maxParallelism;
+    private final int maxItems;
+    private final AtomicLong items = new AtomicLong();
+
+    /**
+     * @param maxParallelism 单个映射步骤同时执行的项数上限
+     * @param maxItems 单个映射步骤最多执行的项数，超出部分丢弃并记录日志
+     */
+    MapStepRunner(int maxParallelism, int maxItems) {
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.maxItems = Math.max(1, maxItems);
+    }
+
+    static boolean isMapStep(LlmTaskStep step) {
+        return step.map_over != null && !step.map_over.isBlank();
+    }
+
+    /**
+     * 规划中直接给出的列表长度，用于耗时估计；列表来自其他步骤的结果、执行前无法确定时返回 -1
+     */
+    static int plannedItems(LlmTaskStep step) {
+        Object value = step.params != null ? step.params.get(step.map_over) : null;
+        return value instanceof Collection ? ((Collection<?>) value).size() : -1;
+    }
+
+    int getMaxParallelism() { return maxParallelism; }
+
+    long getItems() { return items.get(); }
+
+    /**
+     * 对列表中的每一项执行一次 item，按列表顺序合并结果
+     *
+     * @param params 已解析引用的步骤参数
+     * @param item 以单项参数执行一次步骤
+     */
+    String run(LlmTaskStep step, Map<String, Object> params, TaskContext context, Executor executor,
+               Function<Map<String, Object>, String> item) {
+        TaskExecution task = context.getTask();
+        List<Object> values = itemsOf(params != null ? params.get(step.map_over) : null);
+        if (values.isEmpty()) {
+            task.addLog("❌ 映射步骤缺少列表参数: " + step.map_over);
+            return "❌ 映射步骤缺少列表参数: " + step.map_over;
+        }
+        if (values.size() > maxItems) {
+            task.addLog(String.format("⚠️ 映射步骤 %d 的列表有 %d 项，只执行前 %d 项", step.id, values.size(), maxItems));
+            values = values.subList(0, maxItems);
+        }
+        List<Object> list = values;
+        int parallelism = Math.min(maxParallelism, list.size());
+        task.addLog(String.format("🔀 映射步骤 %d: %s (%s) 对 %d 项执行，最多 %d 项并发",
+            step.id, step.agent, step.action, list.size(), parallelism));
+
+        String[] results = new String[list.size()];
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < list.size() && !context.isAborted(); i = next.getAndIncrement()) {
+                Map<String, Object> itemParams = new HashMap<>(params);
+                itemParams.put(step.map_over, list.get(i));
+                results[i] = item.apply(itemParams);
+                items.incrementAndGet();
+            }
+        };
+        // 辅助线程开始执行前先占用自己的标记；当前线程领取完所有项后收回仍在排队的辅助任务，
+        // 只等待已经开始的辅助线程，避免步骤线程全部在等待排队中的辅助任务
+        List<AtomicBoolean> claims = new ArrayList<>(parallelism - 1);
+        List<CompletableFuture<Void>> helpers = new ArrayList<>(parallelism - 1);
+        for (int i = 1; i < parallelism; i++) {
+            AtomicBoolean claim = new AtomicBoolean();
+            claims.add(claim);
+            helpers.add(context.track(CompletableFuture.runAsync(() -> {
+                if (claim.compareAndSet(false, true)) {
+                    context.runGuarded(() -> {
+                        worker.run();
+                        return null;
+                    });
+                }
+            }, executor)));
+        }
+        try {
+            context.runGuarded(() -> {
+                worker.run();
+                return null;
+            });
+            List<CompletableFuture<Void>> running = new ArrayList<>(helpers.size());
+            for (int i = 0; i < helpers.size(); i++) {
+                if (claims.get(i).compareAndSet(false, true)) {
+                    helpers.get(i).cancel(false);
+                } else {
+                    running.add(helpers.get(i));
+                }
+            }
+            context.await(CompletableFuture.allOf(running.toArray(new CompletableFuture[0])));
+        } catch (ExecutionException | TimeoutException e) {
+            context.checkNotAborted();
+            task.addLog("映射步骤执行失败: " + e.getMessage());
+            return "❌ 映射步骤执行失败: " + e.getMessage();
+        }
+        context.checkNotAborted();
+
+        StringBuilder combined = new StringBuilder();
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                combined.append('\n');
+            }
+            combined.append(String.format("- %s: %s", list.get(i), results[i]));
+        }
+        return combined.toString();
+    }
+
+    /**
+     * 列表参数的各项：规划中的数组直接使用，文本（如 step:N 解析出的结果）按行或分隔符拆分
+     */
+    static List<Object> itemsOf(Object value) {
+        List<Object> values = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                if (element != null && !String.valueOf(element).isBlank()) {
+                    values.add(element);
+                }
+            }
+        } else if (value != null) {
+            String text = String.valueOf(value).trim();
+            String[] parts = LINES.split(text);
+            if (parts.length == 1) {
+                parts = SEPARATORS.split(text);
+            }
+            for (String part : parts) {
+                if (!part.isBlank()) {
+                    values.add(part.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 映射步骤是否全部成功：有任何一项失败时推送为失败
+     */
+    static boolean succeeded(String combined) {
+        return combined != null && !combined.startsWith("❌") && !combined.contains(": ❌");
+    }
+}
@@ -0,0 +1,125 @@
+package agent;
+
+import java.text.Normalizer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 任务规划缓存
+ * 以归一化后的用户输入为键缓存 LLM 规划结果，命中时完全跳过规划调用
+ * LRU + 容量上限 + TTL 淘汰，并记录命中/未命中次数
+ */
+class PlanCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 仅当两侧都是字母数字时保留空格（如英文单词之间）
+    private static final Pattern INNER_SPACE = Pattern.compile("(?<=[^\\p{L}\\p{N}]) | (?=[^\\p{L}\\p{N}])|(?<=\\p{IsHan}) | (?=\\p{IsHan})");
+    private static final Pattern EDGE_PUNCTUATION = Pattern.compile("^[,.!?;:'\"~…]+|[,.!?;:'\"~…]+$");
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    PlanCache(int maxSize, long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000L;
+        // accessOrder=true：按访问顺序排列，最久未使用的在队头
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 查询缓存，命中时返回规划的独立副本
+     */
+    LlmTaskPlan get(String userInput) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = normalize(userInput);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.plan.copy();
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存，仅应写入由 LLM 成功生成的规划
+     */
+    void put(String userInput, LlmTaskPlan plan) {
+        if (!isEnabled() || plan == null) {
+            return;
+        }
+        String key = normalize(userInput);
+        Entry entry = new Entry(plan.copy(), System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            entries.put(key, entry);
+            evictOverflow();
+        }
+    }
+
+    private void evictOverflow() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > maxSize || hasExpiredHead(now))) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean hasExpiredHead(long now) {
+        return !entries.isEmpty() && entries.values().iterator().next().expiresAt <= now;
+    }
+
+    /**
+     * 输入归一化：全角/半角折叠(NFKC)、大小写、空白与首尾标点
+     */
+    static String normalize(String input) {
+        if (input == null) {
+            return "";
+        }
+        String s = Normalizer.normalize(input, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        // NFKC 不会折叠的中文标点
+        s = s.replace('。', '.').replace('、', ',')
+             .replace('“', '"').replace('”', '"').replace('‘', '\'').replace('’', '\'');
+        s = WHITESPACE.matcher(s.trim()).replaceAll(" ");
+        s = INNER_SPACE.matcher(s).replaceAll("");
+        return EDGE_PUNCTUATION.matcher(s).replaceAll("");
+    }
+
+    boolean isEnabled() { return maxSize > 0; }
+
+    synchronized int size() { return entries.size(); }
+
+    long getHits() { return hits.get(); }
+
+    long getMisses() { return misses.get(); }
+
+    long getEvictions() { return evictions.get(); }
+
+    private static class Entry {
+        private final LlmTaskPlan plan;
+        private final long expiresAt;
+
+        Entry(LlmTaskPlan plan, long expiresAt) {
+            this.plan = plan;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
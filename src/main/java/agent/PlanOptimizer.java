@@ -0,0 +1,362 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 规划优化
+ * 在规划生成之后、执行之前改写规划副本，不改变各步骤得到的输入：
+ * 1. 去重：agent、action、params 完全相同的步骤只执行一次，其他步骤对它的 step:N 引用和依赖改指保留的步骤；
+ * 2. 依赖重建：参数中没有以 step:N 引用的依赖只会拉长关键路径，予以删除；引用了却没有声明的依赖补上；
+ * 3. 没有步骤使用“上一步结果”时，顺序规划改为 DAG，没有任何依赖时直接并行；
+ * 4. 可选：相邻的同 Agent 步骤合并为一次调用，省去模型往返（映射步骤不参与合并）。
+ * 文件操作等有副作用的步骤不参与去重与合并，这些步骤之间的先后顺序始终保留。
+ * 优化前后按各 Agent 的步骤耗时估计计算关键路径，预测规划的总耗时；映射步骤按项数和并发上限折算为若干轮
+ */
+final class PlanOptimizer {
+
+    private static final String PREVIOUS_RESULT = "上一步结果";
+    private static final String STEP_REFERENCE = "step:";
+
+    private final boolean fuseSteps;
+    private final StepLatencyEstimates latencies;
+    private final ToolDispatcher toolDispatcher;
+    private final int mapParallelism;
+
+    /**
+     * @param mapParallelism 映射步骤的并发项数上限，用于估计映射步骤的耗时
+     */
+    PlanOptimizer(boolean fuseSteps, StepLatencyEstimates latencies, ToolDispatcher toolDispatcher, int mapParallelism) {
+        this.fuseSteps = fuseSteps;
+        this.latencies = latencies;
+        this.toolDispatcher = toolDispatcher;
+        this.mapParallelism = Math.max(1, mapParallelism);
+    }
+
+    Result optimize(LlmTaskPlan original) {
+        LlmTaskPlan plan = original.copy();
+        Result result = new Result(plan, estimateMillis(plan));
+        if (plan.steps == null || plan.steps.size() < 2) {
+            result.estimatedAfter = result.estimatedBefore;
+            return result;
+        }
+        plan.steps = new ArrayList<>(plan.steps);
+        boolean declaredDependencies = StepGraph.hasComplexDependencies(plan.steps);
+        boolean sequential = !declaredDependencies && !"parallel".equalsIgnoreCase(plan.collaboration);
+        boolean usesPrevious = plan.steps.stream().anyMatch(PlanOptimizer::usesPreviousResult);
+        // 依赖“上一步结果”的顺序规划只能按原顺序执行，只做不影响相邻关系的改写
+        boolean keepOrder = sequential && usesPrevious;
+
+        result.deduplicated = deduplicate(plan.steps, keepOrder);
+        if (!usesPrevious) {
+            result.droppedDependencies = rebuildDependencies(plan.steps, sequential);
+            boolean hasDependencies = StepGraph.hasComplexDependencies(plan.steps);
+            if (!hasDependencies && plan.steps.size() > 1) {
+                plan.collaboration = "parallel";
+            }
+            result.parallelized = sequential && plan.steps.size() > 1;
+        }
+        if (fuseSteps) {
+            result.fused = fuse(plan.steps, keepOrder);
+        }
+        result.estimatedAfter = estimateMillis(plan);
+        return result;
+    }
+
+    /**
+     * 删除重复步骤
+     *
+     * @param keepOrder 顺序执行且有步骤使用“上一步结果”：被删除步骤的下一步不能使用“上一步结果”
+     * @return 删除的步骤数
+     */
+    private static int deduplicate(List<LlmTaskStep> steps, boolean keepOrder) {
+        Map<Integer, Integer> aliases = new HashMap<>();
+        Map<List<Object>, LlmTaskStep> seen = new HashMap<>();
+        List<LlmTaskStep> kept = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            LlmTaskStep step = steps.get(i);
+            rewriteReferences(step, aliases);
+            boolean removable = !StepGraph.hasSideEffects(step) && !usesPreviousResult(step)
+                && !(keepOrder && i + 1 < steps.size() && usesPreviousResult(steps.get(i + 1)));
+            List<Object> key = Arrays.asList(step.agent, step.action, step.params != null ? step.params : Map.of(), String.valueOf(step.map_over));
+            LlmTaskStep first = removable ? seen.get(key) : null;
+            if (first != null) {
+                aliases.put(step.id, first.id);
+                continue;
+            }
+            if (!StepGraph.hasSideEffects(step) && !usesPreviousResult(step)) {
+                seen.putIfAbsent(key, step);
+            }
+            kept.add(step);
+        }
+        int removed = steps.size() - kept.size();
+        steps.clear();
+        steps.addAll(kept);
+        return removed;
+    }
+
+    /**
+     * 依赖改为参数中实际引用的步骤；有副作用的步骤之间原有的依赖保留，原为顺序执行时这些步骤依次串联
+     *
+     * @return 删除的依赖数
+     */
+    private static int rebuildDependencies(List<LlmTaskStep> steps, boolean sequential) {
+        Map<Integer, LlmTaskStep> byId = new HashMap<>();
+        for (LlmTaskStep step : steps) {
+            byId.putIfAbsent(step.id, step);
+        }
+        int dropped = 0;
+        Integer previousSideEffectStep = null;
+        for (LlmTaskStep step : steps) {
+            Set<Integer> declared = StepGraph.dependenciesOf(step);
+            Set<Integer> dependencies = new LinkedHashSet<>();
+            for (Integer dependency : declared) {
+                LlmTaskStep target = byId.get(dependency);
+                if (target != null && StepGraph.hasSideEffects(step) && StepGraph.hasSideEffects(target)) {
+                    dependencies.add(dependency);
+                }
+            }
+            for (Integer reference : referencesOf(step)) {
+                // 引用不存在的步骤时不补依赖，与优化前一样按原文传给 Agent
+                if (reference != step.id && byId.containsKey(reference)) {
+                    dependencies.add(reference);
+                }
+            }
+            if (StepGraph.hasSideEffects(step)) {
+                if (sequential && previousSideEffectStep != null) {
+                    dependencies.add(previousSideEffectStep);
+                }
+                previousSideEffectStep = step.id;
+            }
+            for (Integer dependency : declared) {
+                if (!dependencies.contains(dependency)) {
+                    dropped++;
+                }
+            }
+            step.depends_on = dependencies.isEmpty() ? null : new ArrayList<>(dependencies);
+        }
+        return dropped;
+    }
+
+    /**
+     * 合并相邻的同 Agent 步骤：两者都不能直连工具、依赖相同、没有被其他步骤引用也不互相引用
+     *
+     * @return 因合并而减少的步骤数
+     */
+    private int fuse(List<LlmTaskStep> steps, boolean keepOrder) {
+        Set<Integer> referenced = new HashSet<>();
+        for (LlmTaskStep step : steps) {
+            referenced.addAll(referencesOf(step));
+            referenced.addAll(StepGraph.dependenciesOf(step));
+        }
+        List<LlmTaskStep> result = new ArrayList<>(steps.size());
+        int merged = 0;
+        int i = 0;
+        while (i < steps.size()) {
+            LlmTaskStep first = steps.get(i);
+            List<LlmTaskStep> group = new ArrayList<>();
+            group.add(first);
+            if (isFusible(first, referenced)) {
+                int j = i + 1;
+                while (j < steps.size() && isFusible(steps.get(j), referenced)
+                        && first.agent.equals(steps.get(j).agent)
+                        && StepGraph.dependenciesOf(first).equals(StepGraph.dependenciesOf(steps.get(j)))) {
+                    group.add(steps.get(j));
+                    j++;
+                }
+                // 合并后下一步的“上一步结果”会变成合并步骤的输出
+                while (keepOrder && group.size() > 1 && i + group.size() < steps.size()
+                        && usesPreviousResult(steps.get(i + group.size()))) {
+                    group.remove(group.size() - 1);
+                }
+            }
+            result.add(group.size() > 1 ? fusedStep(group) : first);
+            merged += group.size() - 1;
+            i += group.size();
+        }
+        steps.clear();
+        steps.addAll(result);
+        return merged;
+    }
+
+    private boolean isFusible(LlmTaskStep step, Set<Integer> referenced) {
+        return step.agent != null && !StepGraph.hasSideEffects(step) && !MapStepRunner.isMapStep(step)
+            && !referenced.contains(step.id) && referencesOf(step).isEmpty() && !usesPreviousResult(step)
+            && !toolDispatcher.canInvoke(step.agent, step.action, step.params);
+    }
+
+    private static LlmTaskStep fusedStep(List<LlmTaskStep> group) {
+        StringBuilder action = new StringBuilder("依次完成以下任务，分别给出结果：");
+        for (int i = 0; i < group.size(); i++) {
+            LlmTaskStep step = group.get(i);
+            action.append('\n').append(i + 1).append(". ").append(step.action);
+            if (step.params != null && !step.params.isEmpty()) {
+                step.params.forEach((name, value) -> action.append("，").append(name).append(": ").append(value));
+            }
+        }
+        LlmTaskStep fused = new LlmTaskStep();
+        fused.id = group.get(0).id;
+        fused.agent = group.get(0).agent;
+        fused.action = action.toString();
+        fused.params = new HashMap<>();
+        fused.depends_on = group.get(0).depends_on;
+        return fused;
+    }
+
+    /**
+     * 按各 Agent 的耗时估计计算关键路径：DAG 取最长路径，并行取最慢步骤，顺序取总和
+     *
+     * @return 预计耗时（毫秒）；依赖关系无效时返回 -1
+     */
+    double estimateMillis(LlmTaskPlan plan) {
+        if (plan.steps == null || plan.steps.isEmpty()) {
+            return 0;
+        }
+        if (StepGraph.hasComplexDependencies(plan.steps)) {
+            List<LlmTaskStep> ordered;
+            try {
+                ordered = StepGraph.topologicalSort(plan.steps);
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+            Map<Integer, Double> finishedAt = new HashMap<>();
+            double total = 0;
+            for (LlmTaskStep step : ordered) {
+                double start = 0;
+                for (Integer dependency : StepGraph.dependenciesOf(step)) {
+                    start = Math.max(start, finishedAt.get(dependency));
+                }
+                double finish = start + estimateMillis(step);
+                finishedAt.put(step.id, finish);
+                total = Math.max(total, finish);
+            }
+            return total;
+        }
+        boolean parallel = "parallel".equalsIgnoreCase(plan.collaboration);
+        double total = 0;
+        for (LlmTaskStep step : plan.steps) {
+            double estimate = estimateMillis(step);
+            total = parallel ? Math.max(total, estimate) : total + estimate;
+        }
+        return total;
+    }
+
+    /**
+     * 单个步骤的耗时估计；映射步骤按并发上限分轮执行，列表来自其他步骤结果、项数未知时按一轮估计
+     */
+    private double estimateMillis(LlmTaskStep step) {
+        double estimate = latencies.estimateMillis(step.agent);
+        if (!MapStepRunner.isMapStep(step)) {
+            return estimate;
+        }
+        int items = MapStepRunner.plannedItems(step);
+        return items > 0 ? estimate * Math.ceil(items / (double) mapParallelism) : estimate;
+    }
+
+    private static void rewriteReferences(LlmTaskStep step, Map<Integer, Integer> aliases) {
+        if (aliases.isEmpty()) {
+            return;
+        }
+        if (step.params != null) {
+            step.params.replaceAll((name, value) -> {
+                Integer reference = referenceOf(value);
+                return reference != null && aliases.containsKey(reference) ? STEP_REFERENCE + aliases.get(reference) : value;
+            });
+        }
+        if (step.depends_on != null) {
+            Set<Integer> dependencies = new LinkedHashSet<>();
+            for (Integer dependency : step.depends_on) {
+                dependencies.add(aliases.getOrDefault(dependency, dependency));
+            }
+            dependencies.remove(step.id);
+            step.depends_on = new ArrayList<>(dependencies);
+        }
+    }
+
+    private static Set<Integer> referencesOf(LlmTaskStep step) {
+        Set<Integer> references = new LinkedHashSet<>();
+        if (step.params != null) {
+            for (Object value : step.params.values()) {
+                Integer reference = referenceOf(value);
+                if (reference != null) {
+                    references.add(reference);
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * 与 StepGraph.resolveStepReferences 一致：整个参数值为 "step:N" 时才是引用
+     */
+    private static Integer referenceOf(Object value) {
+        if (value instanceof String && ((String) value).startsWith(STEP_REFERENCE)) {
+            try {
+                return Integer.parseInt(((String) value).substring(STEP_REFERENCE.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean usesPreviousResult(LlmTaskStep step) {
+        return step.params != null && step.params.values().stream()
+            .anyMatch(value -> value instanceof String && ((String) value).contains(PREVIOUS_RESULT));
+    }
+
+    /**
+     * 优化结果与改写统计
+     */
+    static final class Result {
+        private final LlmTaskPlan plan;
+        private final double estimatedBefore;
+        private double estimatedAfter;
+        private int deduplicated;
+        private int droppedDependencies;
+        private int fused;
+        private boolean parallelized;
+
+        Result(LlmTaskPlan plan, double estimatedBefore) {
+            this.plan = plan;
+            this.estimatedBefore = estimatedBefore;
+        }
+
+        LlmTaskPlan getPlan() { return plan; }
+
+        double getEstimatedBefore() { return estimatedBefore; }
+
+        double getEstimatedAfter() { return estimatedAfter; }
+
+        /**
+         * 任务日志中的一行摘要
+         */
+        String describe() {
+            List<String> changes = new ArrayList<>();
+            if (deduplicated > 0) {
+                changes.add("去除 " + deduplicated + " 个重复步骤");
+            }
+            if (droppedDependencies > 0) {
+                changes.add("删除 " + droppedDependencies + " 个未引用的依赖");
+            }
+            if (parallelized) {
+                changes.add("顺序执行改为按依赖并发");
+            }
+            if (fused > 0) {
+                changes.add("合并 " + fused + " 个相邻步骤");
+            }
+            String estimate = estimatedBefore < 0 || estimatedAfter < 0 ? "无法估计"
+                : estimatedBefore == estimatedAfter ? String.format("%.1fs", estimatedAfter / 1000)
+                : String.format("%.1fs → %.1fs", estimatedBefore / 1000, estimatedAfter / 1000);
+            return changes.isEmpty()
+                ? "规划预计耗时 " + estimate
+                : "规划优化: " + String.join("，", changes) + "；预计耗时 " + estimate;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * 规划模板库
+ * 从执行成功的 LLM 规划中学习模板：把步骤参数里原样出现在用户输入中的字符串（如城市名、待翻译文本）
+ * 对齐到输入中的片段并替换为槽位，输入的其余部分作为模板的固定文本。
+ * 例如“北京的天气然后翻译成英文”学习为“{0}的天气然后翻译成{1}”，之后“上海的天气然后翻译成英文”直接套用，不再调用规划。
+ * 映射步骤的列表参数逐项对齐，列表长度随模板固定（“北京、上海的天气”只匹配两个城市的输入）。
+ * 每个模板以最长的固定文本为锚点编入关键词自动机，查找时只对输入扫描一遍；
+ * 模板数超过上限时淘汰使用次数最少的模板（LFU），并记录命中/未命中次数
+ */
+class PlanTemplateLibrary {
+
+    // 模板参数中的槽位标记：起始符 + 槽位序号（编码为私用区字符），不会与正常文本冲突
+    private static final char SLOT_MARK = '\uE000';
+    private static final char SLOT_INDEX_BASE = '\uE100';
+    // 过短的参数值容易在输入中偶然出现，不作为槽位
+    private static final int MIN_SLOT_LENGTH = 2;
+    private static final int MIN_ANCHOR_LENGTH = 2;
+
+    private final int maxSize;
+    // 模板文本（固定文本与槽位拼接）-> 模板
+    private final Map<String, Template> templates = new HashMap<>();
+    // 模板增减后置空，下次查找时重建
+    private volatile KeywordAutomaton<Template> index;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    PlanTemplateLibrary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 查找与输入匹配的模板，多个模板匹配时取固定文本最长（最具体）的一个
+     *
+     * @return 用输入中的片段填充槽位后的规划；没有匹配时返回 null
+     */
+    LlmTaskPlan match(String userInput) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String input = userInput.trim();
+        String folded = fold(input);
+        Template best = null;
+        List<String> bestValues = null;
+        Set<Template> tried = new HashSet<>();
+        for (KeywordAutomaton.Hit<Template> hit : currentIndex().findAll(folded)) {
+            Template template = hit.value;
+            if (!tried.add(template) || (best != null && template.literalLength <= best.literalLength)) {
+                continue;
+            }
+            List<String> values = template.bind(input, folded);
+            if (values != null) {
+                best = template;
+                bestValues = values;
+            }
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        best.uses.incrementAndGet();
+        return best.instantiate(bestValues);
+    }
+
+    /**
+     * 从执行成功的规划学习模板；参数中没有任何值能对齐到输入时不学习
+     */
+    void learn(String userInput, LlmTaskPlan plan) {
+        if (!isEnabled() || plan == null || plan.steps == null || plan.steps.isEmpty()) {
+            return;
+        }
+        Template template = Template.of(userInput.trim(), plan);
+        if (template == null) {
+            return;
+        }
+        synchronized (this) {
+            Template existing = templates.get(template.key);
+            if (existing != null) {
+                // 同一形状的输入再次由规划生成时以新规划为准，保留使用次数
+                template.uses.set(existing.uses.get());
+            }
+            templates.put(template.key, template);
+            while (templates.size() > maxSize) {
+                Template victim = templates.values().stream()
+                    .filter(candidate -> candidate != template)
+                    .min(Comparator.comparingLong((Template candidate) -> candidate.uses.get())
+                        .thenComparingLong(candidate -> candidate.learnedAt))
+                    .orElse(template);
+                templates.remove(victim.key);
+                evictions.incrementAndGet();
+            }
+            index = null;
+        }
+    }
+
+    private KeywordAutomaton<Template> currentIndex() {
+        KeywordAutomaton<Template> current = index;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (index == null) {
+                Map<String, List<Template>> anchors = new HashMap<>();
+                for (Template template : templates.values()) {
+                    anchors.computeIfAbsent(template.anchor, k -> new ArrayList<>()).add(template);
+                }
+                index = KeywordAutomaton.compile(anchors);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 匹配时忽略大小写；逐字符转换保持长度不变，槽位值按同样的位置从原始输入中截取，保留原有大小写（如时区名）
+     */
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    boolean isEnabled() { return maxSize > 0; }
+
+    synchronized int size() { return templates.size(); }
+
+    long getHits() { return hits.get(); }
+
+    long getMisses() { return misses.get(); }
+
+    long getEvictions() { return evictions.get(); }
+
+    /**
+     * 模板：固定文本 literals[0] 槽位0 literals[1] 槽位1 ... literals[n]，中间的固定文本非空
+     */
+    private static final class Template {
+        private final String key;
+        private final List<String> literals;
+        private final int[] maxSlotLengths;
+        private final String anchor;
+        private final int literalLength;
+        private final LlmTaskPlan plan;
+        private final long learnedAt = System.nanoTime();
+        private final AtomicLong uses = new AtomicLong();
+
+        private Template(String key, List<String> literals, int[] maxSlotLengths, LlmTaskPlan plan) {
+            this.key = key;
+            this.literals = literals;
+            this.maxSlotLengths = maxSlotLengths;
+            this.plan = plan;
+            this.anchor = literals.stream().max(Comparator.comparingInt(String::length)).orElse("");
+            this.literalLength = literals.stream().mapToInt(String::length).sum();
+        }
+
+        /**
+         * 把规划参数中的字符串值对齐到输入中的片段，较长的值优先。
+         * 某个值在输入中出现多次时无法确定参数对应哪一处（如“25+25”），不学习
+         */
+        static Template of(String input, LlmTaskPlan plan) {
+            String folded = fold(input);
+            Set<String> candidates = new HashSet<>();
+            for (LlmTaskStep step : plan.steps) {
+                if (step.params == null) {
+                    continue;
+                }
+                for (Object value : step.params.values()) {
+                    for (Object element : value instanceof List ? (List<?>) value : Collections.singletonList(value)) {
+                        if (element instanceof String) {
+                            String candidate = fold(((String) element).trim());
+                            if (candidate.length() >= MIN_SLOT_LENGTH && candidate.length() < folded.length()) {
+                                candidates.add(candidate);
+                            }
+                        }
+                    }
+                }
+            }
+            List<String> byLength = new ArrayList<>(candidates);
+            byLength.sort(Comparator.comparingInt(String::length).reversed());
+            List<int[]> spans = new ArrayList<>();
+            for (String value : byLength) {
+                int from = folded.indexOf(value);
+                if (from < 0) {
+                    continue;
+                }
+                // 出现多次，或只出现在更长的槽位值内部（套用模板后该参数不会随之改变）
+                if (from != folded.lastIndexOf(value) || overlaps(spans, from, from + value.length())) {
+                    return null;
+                }
+                spans.add(new int[]{from, from + value.length()});
+            }
+            if (spans.isEmpty()) {
+                return null;
+            }
+            spans.sort(Comparator.comparingInt(span -> span[0]));
+
+            List<String> literals = new ArrayList<>();
+            List<String> slotValues = new ArrayList<>();
+            int[] maxSlotLengths = new int[spans.size()];
+            StringBuilder key = new StringBuilder();
+            int position = 0;
+            for (int i = 0; i < spans.size(); i++) {
+                int[] span = spans.get(i);
+                String literal = folded.substring(position, span[0]);
+                // 相邻槽位之间没有固定文本时无法确定分界
+                if (i > 0 && literal.isEmpty()) {
+                    return null;
+                }
+                literals.add(literal);
+                String value = input.substring(span[0], span[1]);
+                slotValues.add(value);
+                maxSlotLengths[i] = Math.max(8, value.length() * 2);
+                key.append(literal).append(SLOT_MARK).append((char) (SLOT_INDEX_BASE + i));
+                position = span[1];
+            }
+            literals.add(folded.substring(position));
+            key.append(folded.substring(position));
+
+            LlmTaskPlan parameterized = parameterize(plan, slotValues);
+            if (parameterized == null) {
+                return null;
+            }
+            Template template = new Template(key.toString(), literals, maxSlotLengths, parameterized);
+            return template.anchor.length() >= MIN_ANCHOR_LENGTH ? template : null;
+        }
+
+        private static boolean overlaps(List<int[]> spans, int start, int end) {
+            for (int[] span : spans) {
+                if (start < span[1] && span[0] < end) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 规划副本中出现槽位值的字符串参数和步骤动作替换为槽位标记，较长的值先替换。
+         * 动作是自由文本，槽位值只以不同大小写出现在动作中时无法替换，套用模板后动作与参数矛盾，返回 null 不学习
+         */
+        private static LlmTaskPlan parameterize(LlmTaskPlan plan, List<String> slotValues) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < slotValues.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparingInt((Integer i) -> slotValues.get(i).length()).reversed());
+
+            LlmTaskPlan template = plan.copy();
+            template.description = replaceSlots(template.description, slotValues, order);
+            for (LlmTaskStep step : template.steps) {
+                step.action = replaceSlots(step.action, slotValues, order);
+                if (containsSlotValue(step.action, slotValues)) {
+                    return null;
+                }
+                if (step.params != null) {
+                    step.params.replaceAll((name, value) -> mapStrings(value, text -> replaceSlots(text, slotValues, order)));
+                }
+            }
+            return template;
+        }
+
+        private static boolean containsSlotValue(String text, List<String> slotValues) {
+            if (text == null) {
+                return false;
+            }
+            String folded = fold(text);
+            for (String value : slotValues) {
+                if (folded.contains(fold(value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String replaceSlots(String text, List<String> slotValues, List<Integer> order) {
+            if (text == null) {
+                return null;
+            }
+            for (int i : order) {
+                String marker = "" + SLOT_MARK + (char) (SLOT_INDEX_BASE + i);
+                // 参数值可能只是大小写或首尾空白与输入不同
+                text = fold(text.trim()).equals(fold(slotValues.get(i))) ? marker : text.replace(slotValues.get(i), marker);
+            }
+            return text;
+        }
+
+        /**
+         * 按固定文本切分输入，得到各槽位的值；输入不符合模板或槽位值过长时返回 null
+         *
+         * @param folded 忽略大小写后的输入，用于与固定文本比较
+         */
+        List<String> bind(String input, String folded) {
+            String first = literals.get(0);
+            String last = literals.get(literals.size() - 1);
+            if (!folded.startsWith(first) || !folded.endsWith(last)) {
+                return null;
+            }
+            int end = folded.length() - last.length();
+            int position = first.length();
+            List<String> values = new ArrayList<>(maxSlotLengths.length);
+            for (int i = 1; i < literals.size(); i++) {
+                int next;
+                if (i == literals.size() - 1) {
+                    next = end;
+                } else {
+                    next = folded.indexOf(literals.get(i), position + 1);
+                    if (next < 0 || next + literals.get(i).length() > end) {
+                        return null;
+                    }
+                }
+                if (next <= position || next - position > maxSlotLengths[i - 1]) {
+                    return null;
+                }
+                values.add(input.substring(position, next));
+                position = next + literals.get(i).length();
+            }
+            return values;
+        }
+
+        LlmTaskPlan instantiate(List<String> values) {
+            LlmTaskPlan instance = plan.copy();
+            instance.description = fill(instance.description, values);
+            for (LlmTaskStep step : instance.steps) {
+                step.action = fill(step.action, values);
+                if (step.params != null) {
+                    step.params.replaceAll((name, value) -> mapStrings(value, text -> fill(text, values)));
+                }
+            }
+            return instance;
+        }
+
+        /**
+         * 改写字符串参数；映射步骤的列表参数逐项改写为新列表，不修改原规划共享的列表
+         */
+        private static Object mapStrings(Object value, UnaryOperator<String> rewrite) {
+            if (value instanceof String) {
+                return rewrite.apply((String) value);
+            }
+            if (value instanceof List) {
+                List<Object> rewritten = new ArrayList<>(((List<?>) value).size());
+                for (Object element : (List<?>) value) {
+                    rewritten.add(element instanceof String ? rewrite.apply((String) element) : element);
+                }
+                return rewritten;
+            }
+            return value;
+        }
+
+        private static String fill(String text, List<String> values) {
+            if (text == null || text.indexOf(SLOT_MARK) < 0) {
+                return text;
+            }
+            StringBuilder filled = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == SLOT_MARK && i + 1 < text.length()) {
+                    filled.append(values.get(text.charAt(++i) - SLOT_INDEX_BASE));
+                } else {
+                    filled.append(c);
+                }
+            }
+            return filled.toString();
+        }
+    }
+}
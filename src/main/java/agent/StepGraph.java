@@ -0,0 +1,129 @@
+package agent;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 任务规划步骤之间的依赖关系处理
+ * 供批量 DAG 调度和流式规划的增量调度共用
+ */
+final class StepGraph {
+
+    // 有副作用的 Agent：文件 Agent，以及挂载了文件工具的通用助手。这些步骤不提前执行、不去重、不合并，彼此之间保持先后顺序
+    private static final Set<String> SIDE_EFFECT_AGENTS = Set.of("file", "assistant");
+
+    private StepGraph() {
+    }
+
+    static boolean hasSideEffects(LlmTaskStep step) {
+        return step.agent != null && SIDE_EFFECT_AGENTS.contains(step.agent);
+    }
+
+    /**
+     * 拓扑排序（Kahn算法），提前发现重复ID、未知依赖和循环依赖
+     * 入度相同时保持步骤的原始顺序
+     */
+    static List<LlmTaskStep> topologicalSort(List<LlmTaskStep> steps) {
+        Map<Integer, LlmTaskStep> stepMap = new LinkedHashMap<>();
+        for (LlmTaskStep step : steps) {
+            if (stepMap.putIfAbsent(step.id, step) != null) {
+                throw new IllegalArgumentException("步骤ID重复: " + step.id);
+            }
+        }
+        
+        Map<Integer, Integer> inDegree = new HashMap<>();
+        Map<Integer, List<Integer>> dependents = new HashMap<>();
+        for (LlmTaskStep step : steps) {
+            Set<Integer> dependencies = dependenciesOf(step);
+            for (Integer depId : dependencies) {
+                if (!stepMap.containsKey(depId)) {
+                    throw new IllegalArgumentException(String.format("步骤 %d 依赖了不存在的步骤 %d", step.id, depId));
+                }
+                dependents.computeIfAbsent(depId, k -> new ArrayList<>()).add(step.id);
+            }
+            inDegree.put(step.id, dependencies.size());
+        }
+        
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (LlmTaskStep step : steps) {
+            if (inDegree.get(step.id) == 0) {
+                ready.add(step.id);
+            }
+        }
+        
+        List<LlmTaskStep> ordered = new ArrayList<>(steps.size());
+        while (!ready.isEmpty()) {
+            Integer id = ready.poll();
+            ordered.add(stepMap.get(id));
+            for (Integer dependent : dependents.getOrDefault(id, Collections.emptyList())) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        
+        if (ordered.size() < steps.size()) {
+            List<Integer> blocked = inDegree.entrySet().stream()
+                .filter(e -> e.getValue() > 0)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+            throw new IllegalArgumentException("检测到循环依赖，无法继续执行: 步骤 " + blocked);
+        }
+        return ordered;
+    }
+    
+    /**
+     * 步骤声明的依赖（去重，保持声明顺序）
+     */
+    static Set<Integer> dependenciesOf(LlmTaskStep step) {
+        return step.depends_on == null ? Collections.emptySet() : new LinkedHashSet<>(step.depends_on);
+    }
+    
+    /**
+     * 检查是否有复杂依赖关系
+     */
+    static boolean hasComplexDependencies(List<LlmTaskStep> steps) {
+        return steps.stream().anyMatch(step -> step.depends_on != null && !step.depends_on.isEmpty());
+    }
+    
+    /**
+     * 将参数中的 "step:N" 引用替换为对应步骤的执行结果
+     */
+    static Map<String, Object> resolveStepReferences(Map<String, Object> stepParams, Map<Integer, String> stepResults) {
+        Map<String, Object> params = new HashMap<>(stepParams != null ? stepParams : new HashMap<>());
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                String value = (String) entry.getValue();
+                if (value.startsWith("step:")) {
+                    try {
+                        int depId = Integer.parseInt(value.substring(5));
+                        String depResult = stepResults.get(depId);
+                        if (depResult != null) {
+                            entry.setValue(depResult);
+                        }
+                    } catch (NumberFormatException e) {
+                        // 忽略无效的step引用
+                    }
+                }
+            }
+        }
+        return params;
+    }
+    
+    /**
+     * 处理顺序执行中的"上一步结果"依赖
+     */
+    static Map<String, Object> resolvePreviousResult(Map<String, Object> stepParams, String prevResult) {
+        Map<String, Object> params = new HashMap<>(stepParams != null ? stepParams : new HashMap<>());
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                String value = (String) entry.getValue();
+                if (value.contains("上一步结果") && prevResult != null) {
+                    entry.setValue(value.replace("上一步结果", prevResult));
+                }
+            }
+        }
+        return params;
+    }
+}
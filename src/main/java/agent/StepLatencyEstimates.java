@@ -0,0 +1,44 @@
+package agent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 Agent 统计的步骤耗时估计（指数加权移动平均）
+ * 包含缓存命中和工具直连调用，反映该 Agent 一个步骤的实际平均耗时；没有样本时使用默认值
+ */
+class StepLatencyEstimates {
+
+    // 新样本的权重
+    private static final double ALPHA = 0.2;
+
+    private final double defaultMillis;
+    private final Map<String, Average> averages = new ConcurrentHashMap<>();
+
+    StepLatencyEstimates(long defaultMillis) {
+        this.defaultMillis = defaultMillis;
+    }
+
+    void record(String agent, long elapsedNanos) {
+        if (agent == null) {
+            return;
+        }
+        averages.computeIfAbsent(agent, k -> new Average()).add(elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    double estimateMillis(String agent) {
+        Average average = agent != null ? averages.get(agent) : null;
+        return average != null ? average.value : defaultMillis;
+    }
+
+    private static final class Average {
+        private volatile double value;
+        private boolean initialized;
+
+        synchronized void add(double sample) {
+            value = initialized ? value + ALPHA * (sample - value) : sample;
+            initialized = true;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package agent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 步骤结果缓存
+ * 以 (agent, action, 规范化params) 为键缓存 Agent 执行结果，每个 Agent 有独立的新鲜度策略
+ * 容量按结果占用的内存权重（字节）限制，淘汰采用并发的 CLOCK（second-chance）近似 LRU
+ */
+class StepResultCache {
+
+    // 每个条目除字符串外的固定开销估算
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final long maxWeightBytes;
+    private final Map<String, Policy> policies;
+    private final ToolDispatcher toolDispatcher;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicLong clockSize = new AtomicLong();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong workspaceGeneration = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ObjectMapper canonicalMapper = JsonMapper.builder()
+        .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+        .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .build();
+
+    /**
+     * @param toolDispatcher 用于判断工作区步骤绑定的工具方法是否只读
+     */
+    StepResultCache(long maxWeightBytes, Map<String, Policy> policies, ToolDispatcher toolDispatcher) {
+        this.maxWeightBytes = maxWeightBytes;
+        this.policies = policies;
+        this.toolDispatcher = toolDispatcher;
+    }
+
+    /**
+     * 生成缓存键，记录创建时的工作区版本，用于丢弃执行期间被写操作作废的结果。
+     * 工作区步骤只有直接绑定到只读工具方法时才是读操作；交给 Agent 的自由文本动作可能写入，一律视为写操作
+     */
+    Key keyFor(String agent, String action, Map<String, Object> params) {
+        Policy policy = policies.getOrDefault(agent, Policy.never());
+        boolean mutation = policy.kind == Kind.WORKSPACE && !isWorkspaceRead(policy, agent, action, params);
+        String canonical;
+        try {
+            canonical = agent + '\u0000' + action + '\u0000' + canonicalMapper.writeValueAsString(params);
+        } catch (JsonProcessingException e) {
+            canonical = null;
+        }
+        return new Key(canonical, policy, mutation, workspaceGeneration.get());
+    }
+
+    String get(Key key) {
+        if (!key.isCacheable()) {
+            return null;
+        }
+        Entry entry = entries.get(key.canonical);
+        if (entry != null && isFresh(entry)) {
+            entry.referenced = true;
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        if (entry != null && entries.remove(key.canonical, entry)) {
+            totalWeight.addAndGet(-entry.weight);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(Key key, String result) {
+        if (!key.isCacheable() || result == null || result.startsWith("❌")) {
+            return;
+        }
+        // 执行期间工作区被修改过，结果可能已过期
+        if (key.policy.kind == Kind.WORKSPACE && key.generation != workspaceGeneration.get()) {
+            return;
+        }
+        long weight = 2L * (key.canonical.length() + result.length()) + ENTRY_OVERHEAD_BYTES;
+        if (weight > maxWeightBytes) {
+            return;
+        }
+        long expiresAt = key.policy.kind == Kind.TTL
+            ? System.currentTimeMillis() + key.policy.ttlMillis
+            : Long.MAX_VALUE;
+        Entry entry = new Entry(key.canonical, result, weight, expiresAt, key.policy, key.generation);
+        Entry previous = entries.put(key.canonical, entry);
+        if (previous != null) {
+            totalWeight.addAndGet(-previous.weight);
+        }
+        totalWeight.addAndGet(weight);
+        clock.offer(entry);
+        clockSize.incrementAndGet();
+        evictIfNeeded();
+        pruneStaleClockEntries();
+    }
+
+    /**
+     * 步骤执行结束后调用：文件写操作使所有文件结果失效
+     */
+    void afterExecution(Key key) {
+        if (key.mutation) {
+            workspaceGeneration.incrementAndGet();
+        }
+    }
+
+    private boolean isFresh(Entry entry) {
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        return entry.policy.kind != Kind.WORKSPACE || entry.generation == workspaceGeneration.get();
+    }
+
+    private void evictIfNeeded() {
+        // 每个条目最多获得一次 second chance，避免无限循环
+        long secondChances = clockSize.get();
+        while (totalWeight.get() > maxWeightBytes) {
+            Entry candidate = clock.poll();
+            if (candidate == null) {
+                break;
+            }
+            clockSize.decrementAndGet();
+            if (entries.get(candidate.canonical) != candidate) {
+                continue; // 已被替换或删除
+            }
+            if (candidate.referenced && secondChances-- > 0) {
+                candidate.referenced = false;
+                clock.offer(candidate);
+                clockSize.incrementAndGet();
+                continue;
+            }
+            if (entries.remove(candidate.canonical, candidate)) {
+                totalWeight.addAndGet(-candidate.weight);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 被替换或过期删除的条目仍留在时钟队列中，数量过多时清理，避免持有大结果
+     */
+    private void pruneStaleClockEntries() {
+        if (clockSize.get() > 2L * entries.size() + 64) {
+            clock.removeIf(e -> {
+                boolean stale = entries.get(e.canonical) != e;
+                if (stale) {
+                    clockSize.decrementAndGet();
+                }
+                return stale;
+            });
+        }
+    }
+
+    private boolean isWorkspaceRead(Policy policy, String agent, String action, Map<String, Object> params) {
+        String method = toolDispatcher.boundMethod(agent, action, params);
+        return method != null && policy.readMethods.contains(method);
+    }
+
+    int size() { return entries.size(); }
+
+    long getWeightBytes() { return totalWeight.get(); }
+
+    long getHits() { return hits.get(); }
+
+    long getMisses() { return misses.get(); }
+
+    long getEvictions() { return evictions.get(); }
+
+    /**
+     * 新鲜度策略类型
+     */
+    enum Kind { IMMUTABLE, TTL, NEVER, WORKSPACE }
+
+    /**
+     * Agent 结果新鲜度策略
+     */
+    static final class Policy {
+        private final Kind kind;
+        private final long ttlMillis;
+        private final Set<String> readMethods;
+
+        private Policy(Kind kind, long ttlMillis, Set<String> readMethods) {
+            this.kind = kind;
+            this.ttlMillis = ttlMillis;
+            this.readMethods = readMethods;
+        }
+
+        /** 结果不随时间变化（如计算） */
+        static Policy immutable() { return new Policy(Kind.IMMUTABLE, 0, Set.of()); }
+
+        /** 结果在给定秒数内有效（如天气） */
+        static Policy ttl(long seconds) { return seconds > 0 ? new Policy(Kind.TTL, seconds * 1000L, Set.of()) : never(); }
+
+        /** 从不缓存（如时间） */
+        static Policy never() { return new Policy(Kind.NEVER, 0, Set.of()); }
+
+        /** 工作区发生写操作时失效（文件）；只有绑定到给定只读工具方法的步骤会被缓存，其余步骤视为写操作 */
+        static Policy invalidatedByWorkspaceWrites(Set<String> readMethods) { return new Policy(Kind.WORKSPACE, 0, readMethods); }
+    }
+
+    static final class Key {
+        private final String canonical;
+        private final Policy policy;
+        private final boolean mutation;
+        private final long generation;
+
+        private Key(String canonical, Policy policy, boolean mutation, long generation) {
+            this.canonical = canonical;
+            this.policy = policy;
+            this.mutation = mutation;
+            this.generation = generation;
+        }
+
+        private boolean isCacheable() {
+            return canonical != null && policy.kind != Kind.NEVER && !mutation;
+        }
+    }
+
+    private static final class Entry {
+        private final String canonical;
+        private final String value;
+        private final long weight;
+        private final long expiresAt;
+        private final Policy policy;
+        private final long generation;
+        private volatile boolean referenced;
+
+        Entry(String canonical, String value, long weight, long expiresAt, Policy policy, long generation) {
+            this.canonical = canonical;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.policy = policy;
+            this.generation = generation;
+        }
+    }
+}
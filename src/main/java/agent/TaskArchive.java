@@ -0,0 +1,190 @@
+package agent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 已淘汰任务的磁盘归档
+ * 每个任务一个 JSON 文件，先写临时文件再原子替换，读取时恢复为只读的 TaskExecution。
+ * 按写入顺序维护归档索引（启动时按文件修改时间重建），每次写入后删除超出文件数上限或保留时间的最早归档
+ */
+class TaskArchive {
+
+    // 任务ID来自请求路径，只接受安全字符，避免路径穿越
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Path directory;
+    private final int maxFiles;
+    private final Duration maxAge;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // 任务ID -> 归档时间，按归档先后排列
+    private final LinkedHashMap<String, Instant> index = new LinkedHashMap<>();
+
+    /**
+     * @param maxFiles 归档文件数上限，不大于 0 时不限制
+     * @param maxAge   归档保留时间，为 0 时不限制
+     */
+    TaskArchive(Path directory, int maxFiles, Duration maxAge) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxFiles = maxFiles;
+        this.maxAge = maxAge;
+        List<Map.Entry<String, Instant>> existing = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".json")) {
+                    existing.add(Map.entry(name.substring(0, name.length() - ".json".length()),
+                        Files.getLastModifiedTime(file).toInstant()));
+                }
+            }
+        }
+        existing.sort(Map.Entry.comparingByValue());
+        synchronized (index) {
+            existing.forEach(entry -> index.put(entry.getKey(), entry.getValue()));
+            enforceRetention();
+        }
+    }
+
+    void write(TaskExecution task) throws IOException {
+        Path target = pathOf(task.getTaskId());
+        if (target == null) {
+            return;
+        }
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("taskId", task.getTaskId());
+        record.put("userInput", task.getUserInput());
+        record.put("createdAt", task.getCreatedAt().toString());
+        record.put("deadline", task.getDeadline().toString());
+        TaskExecution.State state = task.state();
+        record.put("status", state.status);
+        record.put("statusMessage", state.statusMessage);
+        record.put("statusSeq", state.statusSeq);
+        record.put("result", state.result);
+        record.put("resultSeq", state.resultSeq);
+        record.put("updatedNanos", state.updatedNanos);
+        record.put("baseSeq", state.baseSeq);
+        record.put("lastSeq", state.lastSeq);
+        List<Map<String, Object>> events = new ArrayList<>(state.events.size());
+        for (TaskEventLog.Event event : state.events) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("seq", event.seq);
+            item.put("epochNanos", event.epochNanos);
+            item.put("type", event.type.name());
+            item.put("status", event.status);
+            item.put("message", event.message);
+            events.add(item);
+        }
+        record.put("events", events);
+        Path temp = Files.createTempFile(directory, task.getTaskId(), ".tmp");
+        try {
+            objectMapper.writeValue(temp.toFile(), record);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        synchronized (index) {
+            // 重新归档的任务移到末尾
+            index.remove(task.getTaskId());
+            index.put(task.getTaskId(), Instant.now());
+            enforceRetention();
+        }
+    }
+
+    /**
+     * 从最早的归档开始删除，直到文件数和最早归档时间都在限制之内
+     */
+    private void enforceRetention() {
+        Instant expiry = maxAge.isZero() ? null : Instant.now().minus(maxAge);
+        Iterator<Map.Entry<String, Instant>> oldest = index.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Instant> entry = oldest.next();
+            boolean overCount = maxFiles > 0 && index.size() > maxFiles;
+            boolean expired = expiry != null && entry.getValue().isBefore(expiry);
+            if (!overCount && !expired) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey() + ".json"));
+            } catch (IOException e) {
+                // 删除失败的文件下次写入时再试
+                return;
+            }
+            oldest.remove();
+        }
+    }
+
+    int size() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /**
+     * 读取归档的任务，不存在时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    TaskExecution read(String taskId) throws IOException {
+        Path source = pathOf(taskId);
+        if (source == null) {
+            return null;
+        }
+        Map<String, Object> record;
+        try {
+            record = objectMapper.readValue(source.toFile(), Map.class);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        List<TaskEventLog.Event> events = new ArrayList<>();
+        for (Map<String, Object> item : (List<Map<String, Object>>) record.get("events")) {
+            events.add(new TaskEventLog.Event(
+                longValue(item.get("seq")),
+                longValue(item.get("epochNanos")),
+                TaskEventLog.Type.valueOf((String) item.get("type")),
+                (String) item.get("status"),
+                (String) item.get("message")));
+        }
+        TaskExecution.State state = new TaskExecution.State(
+            (String) record.get("status"),
+            (String) record.get("statusMessage"),
+            longValue(record.get("statusSeq")),
+            (String) record.get("result"),
+            longValue(record.get("resultSeq")),
+            longValue(record.get("updatedNanos")),
+            longValue(record.get("baseSeq")),
+            longValue(record.get("lastSeq")),
+            events);
+        return new TaskExecution(
+            (String) record.get("taskId"),
+            (String) record.get("userInput"),
+            LocalDateTime.parse((String) record.get("createdAt")),
+            LocalDateTime.parse((String) record.get("deadline")),
+            state,
+            events.size());
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private Path pathOf(String taskId) {
+        if (taskId == null || !SAFE_ID.matcher(taskId).matches()) {
+            return null;
+        }
+        return directory.resolve(taskId + ".json");
+    }
+}
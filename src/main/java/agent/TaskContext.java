@@ -0,0 +1,211 @@
+package agent;
+
+import config.TokenUsageTracker;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 运行中任务的执行上下文
+ * 跟踪任务的截止时间、正在执行的线程和 future，超时或取消时统一中断并释放线程；
+ * 在该任务线程上发起的模型调用的 token 用量累计到上下文中
+ */
+class TaskContext {
+
+    private final TaskExecution task;
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    private final Set<Future<?>> futures = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicBoolean dequeued = new AtomicBoolean();
+    private volatile boolean aborted;
+    private volatile boolean stepFailed;
+    private volatile Future<?> deadlineTimer;
+    private final LongAdder inputTokens = new LongAdder();
+    private final LongAdder outputTokens = new LongAdder();
+
+    TaskContext(TaskExecution task) {
+        this.task = task;
+    }
+
+    TaskExecution getTask() { return task; }
+
+    boolean isAborted() { return aborted; }
+
+    /**
+     * 抢占任务的终态，只有第一个调用者（完成、失败、超时或取消）可以写入最终状态
+     */
+    boolean finish() {
+        return finished.compareAndSet(false, true);
+    }
+
+    /**
+     * 标记任务离开等待队列（开始执行或排队期间被中止），只有第一次调用返回 true
+     */
+    boolean leaveQueue() {
+        return dequeued.compareAndSet(false, true);
+    }
+
+    void setDeadlineTimer(Future<?> deadlineTimer) {
+        this.deadlineTimer = deadlineTimer;
+    }
+
+    void cancelDeadlineTimer() {
+        Future<?> timer = deadlineTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * 在当前线程执行任务的一部分工作，期间该线程可被 abort 中断
+     */
+    <T> T runGuarded(Supplier<T> work) {
+        Thread current = Thread.currentThread();
+        boolean registered;
+        synchronized (this) {
+            checkNotAborted();
+            registered = workers.add(current);
+        }
+        try {
+            return TokenUsageTracker.track(this::addTokenUsage, work);
+        } finally {
+            if (registered) {
+                synchronized (this) {
+                    workers.remove(current);
+                }
+                // abort 只会在线程登记期间中断它，注销后清除中断标记，避免影响线程池中的下一个任务
+                if (aborted) {
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建任务内可单独中断的一组工作，如流式规划提前派发的步骤
+     */
+    WorkGroup newWorkGroup() {
+        return new WorkGroup();
+    }
+
+    /**
+     * 任务内的一组工作：cancel 只中断属于该组的线程，任务本身继续执行
+     */
+    final class WorkGroup {
+        private final Set<Thread> threads = new HashSet<>();
+        private boolean cancelled;
+
+        <T> T run(Supplier<T> work) {
+            Thread current = Thread.currentThread();
+            synchronized (this) {
+                if (cancelled) {
+                    throw new CancellationException("工作已取消");
+                }
+                threads.add(current);
+            }
+            try {
+                return runGuarded(work);
+            } finally {
+                boolean interrupted;
+                synchronized (this) {
+                    threads.remove(current);
+                    interrupted = cancelled;
+                }
+                // 注销后不会再被 cancel 中断，清除可能残留的中断标记，避免影响线程池中的下一个任务
+                if (interrupted && !aborted) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            threads.forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * 登记一个属于该任务的 future，abort 时一并取消
+     */
+    <F extends Future<?>> F track(F future) {
+        futures.add(future);
+        if (aborted) {
+            future.cancel(true);
+        }
+        return future;
+    }
+
+    /**
+     * 在剩余时间预算内等待 future 完成
+     */
+    <T> T await(Future<T> future) throws ExecutionException, TimeoutException {
+        try {
+            return future.get(Math.max(0, task.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("任务已中止");
+        }
+    }
+
+    /**
+     * 在剩余时间预算和 maxNanos 中较短的时间内等待 future 完成
+     */
+    <T> T await(Future<T> future, long maxNanos) throws ExecutionException, TimeoutException {
+        try {
+            return future.get(Math.max(0, Math.min(maxNanos, task.remainingNanos())), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("任务已中止");
+        }
+    }
+
+    /**
+     * 中止任务：取消所有 future 并中断正在执行该任务的线程
+     */
+    void abort() {
+        synchronized (this) {
+            aborted = true;
+            workers.forEach(Thread::interrupt);
+        }
+        futures.forEach(f -> f.cancel(true));
+        cancelDeadlineTimer();
+    }
+
+    void addTokenUsage(TokenUsage usage) {
+        if (usage.inputTokenCount() != null) {
+            inputTokens.add(usage.inputTokenCount());
+        }
+        if (usage.outputTokenCount() != null) {
+            outputTokens.add(usage.outputTokenCount());
+        }
+    }
+
+    /**
+     * 记录有步骤执行失败，执行成功的规划才会被学习为模板
+     */
+    void markStepFailed() {
+        stepFailed = true;
+    }
+
+    boolean hasStepFailures() { return stepFailed; }
+
+    long getInputTokens() { return inputTokens.sum(); }
+
+    long getOutputTokens() { return outputTokens.sum(); }
+
+    void checkNotAborted() {
+        if (aborted) {
+            throw new CancellationException("任务已中止: " + task.getStatus());
+        }
+    }
+}
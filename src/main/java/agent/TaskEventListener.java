@@ -0,0 +1,10 @@
+package agent;
+
+/**
+ * 任务变更监听器
+ * 在追加事件的线程上回调，并发追加的事件可能不按序号顺序到达，实现不应阻塞
+ */
+interface TaskEventListener {
+
+    void onEvent(TaskExecution task, TaskEventLog.Event event);
+}
@@ -0,0 +1,152 @@
+package agent;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 任务事件环形缓冲
+ * 多个线程无锁并发追加：序号由 AtomicLong 分配，事件按序号落入对应槽位，超过容量后覆盖最旧的事件。
+ * 事件只保存时间戳、类型和消息引用，读取时才格式化为日志文本
+ */
+final class TaskEventLog {
+
+    enum Type { CREATED, STATUS, LOG, RESULT }
+
+    private final AtomicLong lastSeq;
+    private final AtomicReferenceArray<Event> slots;
+    private final int capacity;
+
+    TaskEventLog(int capacity, long baseSeq) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.lastSeq = new AtomicLong(baseSeq);
+    }
+
+    /**
+     * 追加事件，返回带序号的事件
+     */
+    Event append(Type type, long epochNanos, String status, String message) {
+        Event event = new Event(lastSeq.incrementAndGet(), epochNanos, type, status, message);
+        publish(event);
+        return event;
+    }
+
+    /**
+     * 按原序号放入事件（日志重放），同一序号重复放入没有副作用
+     */
+    void place(Event event) {
+        lastSeq.accumulateAndGet(event.seq, Math::max);
+        if (event.seq > lastSeq.get() - capacity) {
+            publish(event);
+        }
+    }
+
+    // 回绕时较慢的写线程不能用旧事件覆盖槽位中更新的事件
+    private void publish(Event event) {
+        slots.accumulateAndGet((int) Math.floorMod(event.seq, (long) capacity), event,
+            (current, candidate) -> current == null || current.seq < candidate.seq ? candidate : current);
+    }
+
+    long lastSeq() {
+        return lastSeq.get();
+    }
+
+    /**
+     * 当前保留的事件，按序号排列；已分配序号但尚未写入槽位的事件被跳过
+     */
+    List<Event> events() {
+        long last = lastSeq.get();
+        long first = Math.max(1, last - capacity + 1);
+        List<Event> events = new ArrayList<>((int) (last - first + 1));
+        for (long seq = first; seq <= last; seq++) {
+            Event event = slots.get((int) Math.floorMod(seq, (long) capacity));
+            if (event != null && event.seq == seq) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 序号大于 after 的连续事件，遇到尚未写入槽位的事件即停止，保证结果没有空洞
+     *
+     * @return 所需的事件已被覆盖时返回 null
+     */
+    List<Event> eventsAfter(long after) {
+        long last = lastSeq.get();
+        if (after < last - capacity) {
+            return null;
+        }
+        List<Event> events = new ArrayList<>((int) Math.max(0, last - after));
+        for (long seq = after + 1; seq <= last; seq++) {
+            Event event = slots.get((int) Math.floorMod(seq, (long) capacity));
+            if (event == null || event.seq < seq) {
+                break;
+            }
+            if (event.seq > seq) {
+                return null;
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * 按序号排列的事件中从第一条开始的连续部分，用于生成完整快照
+     */
+    static List<Event> contiguous(List<Event> events) {
+        for (int i = 1; i < events.size(); i++) {
+            if (events.get(i).seq != events.get(i - 1).seq + 1) {
+                return events.subList(0, i);
+            }
+        }
+        return events;
+    }
+
+    static long toEpochNanos(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    static LocalDateTime toLocalDateTime(long epochNanos) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneId.systemDefault());
+    }
+
+    /**
+     * 不可变的任务事件
+     */
+    static final class Event {
+        final long seq;
+        final long epochNanos;
+        final Type type;
+        final String status;
+        final String message;
+
+        Event(long seq, long epochNanos, Type type, String status, String message) {
+            this.seq = seq;
+            this.epochNanos = epochNanos;
+            this.type = type;
+            this.status = status;
+            this.message = message;
+        }
+
+        /**
+         * 格式化为日志文本，RESULT 事件不出现在日志中
+         */
+        String format() {
+            switch (type) {
+                case CREATED:
+                    return message;
+                case STATUS:
+                    return String.format("[%s] %s: %s", toLocalDateTime(epochNanos), status, message);
+                default:
+                    return String.format("[%s] %s", toLocalDateTime(epochNanos), message);
+            }
+        }
+    }
+}
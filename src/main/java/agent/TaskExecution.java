@@ -1,7 +1,10 @@
 package agent;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -9,53 +12,296 @@ import java.util.List;
  * 用于跟踪任务执行进度和状态
  */
 public class TaskExecution {
+    static final int DEFAULT_LOG_CAPACITY = 500;
+    
     private final String taskId;
     private final String userInput;
     private final LocalDateTime createdAt;
-    private String status; // PENDING, ANALYZING, EXECUTING, COMPLETED, FAILED
-    private String statusMessage;
-    private String result;
-    private LocalDateTime updatedAt;
-    private final List<String> logs;
+    private final LocalDateTime deadline;
+    private final long deadlineNanos;
+    // 事件时间戳由构造时的墙钟时间加单调时钟增量推算，记录事件时不再读取系统时间
+    private final long epochBaseNanos;
+    private final long nanoTimeBase;
+    private final long baseSeq;
+    private final TaskEventLog events;
+    private volatile String status; // PENDING, ANALYZING, EXECUTING, COMPLETED, FAILED, TIMED_OUT, CANCELLED, INTERRUPTED
+    private volatile String statusMessage;
+    private volatile String result;
+    private volatile long updatedNanos;
+    // 状态和结果对应的事件序号，重放时乱序到达的旧事件不会覆盖新值
+    private long statusSeq;
+    private long resultSeq;
+    // 写时复制，追加事件时无需加锁遍历
+    private volatile TaskEventListener[] listeners = new TaskEventListener[0];
+    private volatile String owner;
+    private volatile ExecutionMode executionMode = ExecutionMode.AUTO;
+    // 已推送给客户端的最后一个事件序号
+    private final Object publishLock = new Object();
+    private long publishedSeq;
+    
+    public TaskExecution(String taskId, String userInput, long timeoutSeconds) {
+        this(taskId, userInput, timeoutSeconds, DEFAULT_LOG_CAPACITY, 0);
+    }
     
-    public TaskExecution(String taskId, String userInput) {
+    /**
+     * @param logCapacity 保留的事件条数上限
+     * @param baseSeq     事件序号起点，重新排队的任务从原任务的序号继续
+     */
+    TaskExecution(String taskId, String userInput, long timeoutSeconds, int logCapacity, long baseSeq) {
+        this(taskId, userInput, null, null, timeoutSeconds, logCapacity, baseSeq);
+    }
+    
+    /**
+     * 重放日志中的提交事件（截止时间已无意义）
+     */
+    TaskExecution(String taskId, String userInput, LocalDateTime createdAt, LocalDateTime deadline, int logCapacity, long baseSeq) {
+        this(taskId, userInput, createdAt, deadline, 0, logCapacity, baseSeq);
+    }
+    
+    private TaskExecution(String taskId, String userInput, LocalDateTime createdAt, LocalDateTime deadline,
+                          long timeoutSeconds, int logCapacity, long baseSeq) {
         this.taskId = taskId;
         this.userInput = userInput;
-        this.createdAt = LocalDateTime.now();
-        this.updatedAt = LocalDateTime.now();
+        this.nanoTimeBase = System.nanoTime();
+        this.epochBaseNanos = TaskEventLog.toEpochNanos(LocalDateTime.now());
+        this.createdAt = createdAt != null ? createdAt : TaskEventLog.toLocalDateTime(epochBaseNanos);
+        this.deadline = deadline != null ? deadline : this.createdAt.plusSeconds(timeoutSeconds);
+        this.deadlineNanos = nanoTimeBase + timeoutSeconds * 1_000_000_000L;
+        this.updatedNanos = TaskEventLog.toEpochNanos(this.createdAt);
         this.status = "PENDING";
         this.statusMessage = "任务已提交，等待执行";
-        this.logs = new ArrayList<>();
-        this.logs.add("任务创建: " + taskId);
+        this.baseSeq = baseSeq;
+        this.publishedSeq = baseSeq;
+        this.statusSeq = baseSeq;
+        this.resultSeq = baseSeq;
+        this.events = new TaskEventLog(logCapacity, baseSeq);
+        this.events.append(TaskEventLog.Type.CREATED, updatedNanos, null, "任务创建: " + taskId);
+    }
+    
+    /**
+     * 从归档或日志快照恢复任务
+     */
+    TaskExecution(String taskId, String userInput, LocalDateTime createdAt, LocalDateTime deadline, State state, int logCapacity) {
+        this.taskId = taskId;
+        this.userInput = userInput;
+        this.createdAt = createdAt;
+        this.deadline = deadline;
+        this.nanoTimeBase = System.nanoTime();
+        this.epochBaseNanos = TaskEventLog.toEpochNanos(LocalDateTime.now());
+        this.deadlineNanos = nanoTimeBase;
+        this.status = state.status;
+        this.statusMessage = state.statusMessage;
+        this.statusSeq = state.statusSeq;
+        this.result = state.result;
+        this.resultSeq = state.resultSeq;
+        this.updatedNanos = state.updatedNanos;
+        this.baseSeq = state.baseSeq;
+        this.publishedSeq = state.lastSeq;
+        this.events = new TaskEventLog(Math.max(logCapacity, state.events.size()), state.lastSeq);
+        state.events.forEach(events::place);
     }
     
     public void updateStatus(String status, String statusMessage) {
-        this.status = status;
-        this.statusMessage = statusMessage;
-        this.updatedAt = LocalDateTime.now();
-        this.logs.add(String.format("[%s] %s: %s", 
-            updatedAt.toString(), status, statusMessage));
+        record(events.append(TaskEventLog.Type.STATUS, now(), status, statusMessage));
     }
     
     public void addLog(String message) {
-        this.updatedAt = LocalDateTime.now();
-        this.logs.add(String.format("[%s] %s", updatedAt.toString(), message));
+        record(events.append(TaskEventLog.Type.LOG, now(), null, message));
     }
     
     public void setResult(String result) {
-        this.result = result;
-        this.updatedAt = LocalDateTime.now();
+        record(events.append(TaskEventLog.Type.RESULT, now(), null, result));
+    }
+    
+    private void record(TaskEventLog.Event event) {
+        apply(event);
+        for (TaskEventListener listener : listeners) {
+            listener.onEvent(this, event);
+        }
+    }
+    
+    /**
+     * 日志重放：按原序号放入事件，不通知监听器
+     */
+    void replay(TaskEventLog.Event event) {
+        events.place(event);
+        apply(event);
+    }
+    
+    private void apply(TaskEventLog.Event event) {
+        if (event.type == TaskEventLog.Type.STATUS || event.type == TaskEventLog.Type.RESULT) {
+            synchronized (this) {
+                if (event.type == TaskEventLog.Type.STATUS && event.seq > statusSeq) {
+                    statusSeq = event.seq;
+                    status = event.status;
+                    statusMessage = event.message;
+                } else if (event.type == TaskEventLog.Type.RESULT && event.seq > resultSeq) {
+                    resultSeq = event.seq;
+                    result = event.message;
+                }
+            }
+        }
+        if (event.epochNanos > updatedNanos) {
+            updatedNanos = event.epochNanos;
+        }
+    }
+    
+    private long now() {
+        return epochBaseNanos + (System.nanoTime() - nanoTimeBase);
+    }
+    
+    /**
+     * 添加变更监听器（任务日志、长轮询等待者），此后的每个事件都会通知，不同线程的事件可能乱序到达
+     */
+    synchronized void addListener(TaskEventListener listener) {
+        TaskEventListener[] current = listeners;
+        TaskEventListener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        listeners = next;
+    }
+    
+    void setOwner(String owner) {
+        this.owner = owner;
+    }
+    
+    ExecutionMode getExecutionMode() { return executionMode; }
+    
+    void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+    
+    long sequence() { return events.lastSeq(); }
+    
+    long baseSeq() { return baseSeq; }
+    
+    List<TaskEventLog.Event> events() { return events.events(); }
+    
+    /**
+     * 状态、结果与保留事件的一致快照，用于日志压缩和归档
+     */
+    synchronized State state() {
+        long lastSeq = events.lastSeq();
+        return new State(status, statusMessage, statusSeq, result, resultSeq, updatedNanos, baseSeq, lastSeq, events.events());
+    }
+    
+    /**
+     * 上次调用以来的增量更新；所需事件已被环形缓冲覆盖时退化为完整快照
+     */
+    public TaskUpdate nextUpdate() {
+        synchronized (publishLock) {
+            TaskUpdate update = updateSince(publishedSeq);
+            publishedSeq = Math.max(publishedSeq, update.getSeq());
+            return update;
+        }
+    }
+    
+    /**
+     * 客户端已有序号 seq 之后的增量，用于断线重连后补发；
+     * 序号未知（负数）、早于本任务的起点或所需事件已被覆盖时返回完整快照
+     */
+    public TaskUpdate updateSince(long seq) {
+        List<TaskEventLog.Event> pending = seq >= baseSeq && seq <= events.lastSeq() ? events.eventsAfter(seq) : null;
+        return pending != null ? TaskUpdate.delta(this, seq, pending) : snapshot();
+    }
+    
+    /**
+     * 无人接收时跳过已有事件：不生成更新，之后订阅的客户端从完整快照开始
+     */
+    public void skipUpdate() {
+        synchronized (publishLock) {
+            publishedSeq = Math.max(publishedSeq, events.lastSeq());
+        }
+    }
+    
+    /**
+     * 完整快照，客户端订阅任务或发现序号不连续时使用
+     */
+    public TaskUpdate snapshot() {
+        State state = state();
+        return TaskUpdate.snapshot(this, state, TaskEventLog.contiguous(state.events));
+    }
+    
+    /**
+     * 是否已处于终态
+     */
+    public boolean isFinished() {
+        switch (status) {
+            case "COMPLETED":
+            case "FAILED":
+            case "TIMED_OUT":
+            case "CANCELLED":
+            case "INTERRUPTED":
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * 距离截止时间的剩余纳秒数，规划调用和各步骤只能使用剩余的时间预算
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
     }
     
     // Getters
     public String getTaskId() { return taskId; }
     public String getUserInput() { return userInput; }
     public LocalDateTime getCreatedAt() { return createdAt; }
+    public LocalDateTime getDeadline() { return deadline; }
     public String getStatus() { return status; }
     public String getStatusMessage() { return statusMessage; }
     public String getResult() { return result; }
-    public LocalDateTime getUpdatedAt() { return updatedAt; }
-    public List<String> getLogs() { return new ArrayList<>(logs); }
+    public LocalDateTime getUpdatedAt() { return TaskEventLog.toLocalDateTime(updatedNanos); }
+    
+    /**
+     * 提交者的 WebSocket 用户名，不对外序列化
+     */
+    @JsonIgnore
+    public String getOwner() { return owner; }
+    
+    /**
+     * 执行日志，序列化时才逐条格式化
+     */
+    public List<String> getLogs() {
+        List<TaskEventLog.Event> logs = events.events();
+        logs.removeIf(event -> event.type == TaskEventLog.Type.RESULT);
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) { return logs.get(index).format(); }
+            
+            @Override
+            public int size() { return logs.size(); }
+        };
+    }
+    
+    /**
+     * 任务状态快照
+     */
+    static final class State {
+        final String status;
+        final String statusMessage;
+        final long statusSeq;
+        final String result;
+        final long resultSeq;
+        final long updatedNanos;
+        final long baseSeq;
+        final long lastSeq;
+        final List<TaskEventLog.Event> events;
+        
+        State(String status, String statusMessage, long statusSeq, String result, long resultSeq,
+              long updatedNanos, long baseSeq, long lastSeq, List<TaskEventLog.Event> events) {
+            this.status = status;
+            this.statusMessage = statusMessage;
+            this.statusSeq = statusSeq;
+            this.result = result;
+            this.resultSeq = resultSeq;
+            this.updatedNanos = updatedNanos;
+            this.baseSeq = baseSeq;
+            this.lastSeq = lastSeq;
+            this.events = events;
+        }
+    }
     
     @Override
     public String toString() {
@@ -0,0 +1,510 @@
+package agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 任务日志（append-only journal）
+ * 任务的提交、状态、日志和结果事件追加写入内存映射的分段文件，用于进程重启后恢复任务。
+ * 调用方只把编码好的记录放入队列，由单个写线程成批写入，每批只 force 一次（group commit），提交路径不等待刷盘。
+ * 分段数达到上限时，以当前存活任务的快照开启新分段并删除旧分段，磁盘占用保持有界。
+ * 事件按序号幂等重放，并发线程的记录乱序写入或与快照重叠都不影响恢复结果。
+ * 写入队列有界：队满时丢弃新记录；写入失败的批次在新分段重试一次，仍失败则丢弃并记录错误。
+ * 两种情况下写线程都会在下一批之前写入所有存活任务的快照，恢复结果与未丢失记录时一致
+ */
+class TaskJournal implements TaskEventListener, AutoCloseable {
+
+    private static final byte SUBMITTED = 1;
+    private static final byte EVENT = 2;
+    private static final byte SNAPSHOT = 3;
+    private static final byte COUNTER = 4;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d+)\\.seg");
+    private static final Pattern TASK_NUMBER = Pattern.compile("task-(\\d+)");
+    // 记录头：负载长度 + CRC32
+    private static final int HEADER_BYTES = 8;
+    // 分段末尾预留的结束标记（长度 0）
+    private static final int TRAILER_BYTES = 4;
+    private static final int MAX_BATCH = 1024;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long lingerNanos;
+    private final BlockingQueue<byte[]> pending;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // 有记录丢失，下一批之前需写入存活任务快照
+    private final AtomicBoolean resyncNeeded = new AtomicBoolean();
+    private Supplier<Collection<TaskExecution>> liveTasks;
+    private LongSupplier taskCounter;
+    private long nextSegmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile int segmentCount;
+
+    /**
+     * @param queueCapacity 等待写入的记录上限
+     */
+    TaskJournal(Path directory, int segmentBytes, int maxSegments, long lingerMillis, int queueCapacity) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.pending = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        for (Path segment : listSegments(directory)) {
+            segments.add(segment);
+            nextSegmentIndex = Math.max(nextSegmentIndex, segmentIndex(segment) + 1);
+        }
+        segmentCount = segments.size();
+    }
+
+    /**
+     * 重放日志目录中的全部分段，恢复任务和最大任务编号
+     */
+    static Recovery replay(Path directory, int logCapacity) throws IOException {
+        Recovery recovery = new Recovery(logCapacity);
+        if (!Files.isDirectory(directory)) {
+            return recovery;
+        }
+        for (Path segment : listSegments(directory)) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                CRC32 crc = new CRC32();
+                while (data.remaining() >= HEADER_BYTES) {
+                    int length = data.getInt();
+                    if (length <= 0 || length > data.remaining() - 4) {
+                        break;
+                    }
+                    int checksum = data.getInt();
+                    byte[] payload = new byte[length];
+                    data.get(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    // 校验失败说明是崩溃时写了一半的记录，该分段后续内容不可信
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    recovery.apply(ByteBuffer.wrap(payload));
+                }
+            }
+        }
+        return recovery;
+    }
+
+    /**
+     * 启动写线程；分段数已达上限时先做一次压缩
+     *
+     * @param liveTasks   压缩时需要保留的任务
+     * @param taskCounter 当前的任务编号，压缩后仍需保证编号不回退
+     */
+    synchronized void start(Supplier<Collection<TaskExecution>> liveTasks, LongSupplier taskCounter) throws IOException {
+        this.liveTasks = liveTasks;
+        this.taskCounter = taskCounter;
+        // 每次启动都写入新分段，不续写可能有残缺记录的旧分段
+        if (segments.size() + 1 > maxSegments) {
+            compact(0);
+        } else {
+            openSegment(segmentBytes);
+        }
+        writer = new Thread(this::runWriter, "agent-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 登记新任务：写入提交事件并开始监听其变更，须在任务开始执行前调用，保证提交事件先于其他事件
+     */
+    void attach(TaskExecution task) {
+        enqueue(record(SUBMITTED, out -> {
+            writeString(out, task.getTaskId());
+            out.writeLong(task.baseSeq());
+            writeString(out, task.getUserInput());
+            writeString(out, task.getCreatedAt().toString());
+            writeString(out, task.getDeadline().toString());
+        }));
+        task.addListener(this);
+    }
+
+    @Override
+    public void onEvent(TaskExecution task, TaskEventLog.Event event) {
+        enqueue(record(EVENT, out -> {
+            writeString(out, task.getTaskId());
+            writeEvent(out, event);
+        }));
+    }
+
+    /**
+     * 放入写入队列；队满时不阻塞提交线程，丢弃该记录并由下一批的存活任务快照补齐
+     */
+    private void enqueue(byte[] record) {
+        if (!pending.offer(record)) {
+            dropped.incrementAndGet();
+            resyncNeeded.set(true);
+        }
+    }
+
+    /**
+     * 停止接收新事件，写完队列中剩余的记录后关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread current = writer;
+        if (current != null) {
+            try {
+                current.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeSegment();
+        }
+    }
+
+    private void runWriter() {
+        List<byte[]> batch = new ArrayList<>();
+        while (!closed || !pending.isEmpty()) {
+            try {
+                byte[] first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // 稍等片刻让同一时间段的事件合并进同一批，减少 force 次数
+                if (lingerNanos > 0) {
+                    LockSupport.parkNanos(lingerNanos);
+                }
+                if (resyncNeeded.getAndSet(false)) {
+                    // 快照在取出本批记录之前生成，已覆盖丢失的记录；本批中较早的事件按序号幂等重放
+                    batch.addAll(snapshotRecords());
+                }
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录并刷盘；失败时关闭当前分段，在新分段重试一次，仍失败则丢弃本批并安排重写快照
+     */
+    private void writeBatch(List<byte[]> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                synchronized (this) {
+                    for (byte[] record : batch) {
+                        ensureCapacity(record.length);
+                        buffer.put(record);
+                    }
+                    buffer.force();
+                }
+                commits.incrementAndGet();
+                return;
+            } catch (IOException | RuntimeException e) {
+                writeFailures.incrementAndGet();
+                synchronized (this) {
+                    closeSegment();
+                }
+                if (attempt >= 2) {
+                    System.err.println("任务日志写入失败，丢弃 " + batch.size() + " 条记录，下一批写入存活任务快照: " + e);
+                    resyncNeeded.set(true);
+                    return;
+                }
+                System.err.println("任务日志写入失败，在新分段重试: " + e);
+            }
+        }
+    }
+
+    private List<byte[]> snapshotRecords() {
+        List<byte[]> snapshot = new ArrayList<>();
+        long counter = taskCounter.getAsLong();
+        snapshot.add(record(COUNTER, out -> out.writeLong(counter)));
+        for (TaskExecution task : liveTasks.get()) {
+            snapshot.add(snapshotRecord(task));
+        }
+        return snapshot;
+    }
+
+    private void ensureCapacity(int recordBytes) throws IOException {
+        if (buffer != null && buffer.remaining() >= recordBytes + TRAILER_BYTES) {
+            return;
+        }
+        if (segments.size() + 1 > maxSegments) {
+            compact(recordBytes);
+        } else {
+            openSegment(Math.max(segmentBytes, recordBytes + TRAILER_BYTES));
+        }
+    }
+
+    /**
+     * 压缩：新分段以任务编号和所有存活任务的快照开头，随后删除全部旧分段。
+     * 快照之前已排队的事件写入后按序号幂等重放，不会重复生效
+     */
+    private void compact(int reserveBytes) throws IOException {
+        List<byte[]> snapshot = snapshotRecords();
+        int size = reserveBytes + TRAILER_BYTES;
+        for (byte[] record : snapshot) {
+            size += record.length;
+        }
+        List<Path> obsolete = new ArrayList<>(segments);
+        openSegment(Math.max(segmentBytes, size));
+        for (byte[] record : snapshot) {
+            buffer.put(record);
+        }
+        buffer.force();
+        for (Path segment : obsolete) {
+            Files.deleteIfExists(segment);
+            segments.remove(segment);
+        }
+        segmentCount = segments.size();
+        compactions.incrementAndGet();
+    }
+
+    private void openSegment(int size) throws IOException {
+        closeSegment();
+        Path segment = directory.resolve(String.format("journal-%010d.seg", nextSegmentIndex++));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segments.add(segment);
+        segmentCount = segments.size();
+    }
+
+    private void closeSegment() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                writeFailures.incrementAndGet();
+            }
+            channel = null;
+        }
+    }
+
+    private static byte[] snapshotRecord(TaskExecution task) {
+        TaskExecution.State state = task.state();
+        return record(SNAPSHOT, out -> {
+            writeString(out, task.getTaskId());
+            writeString(out, task.getUserInput());
+            writeString(out, task.getCreatedAt().toString());
+            writeString(out, task.getDeadline().toString());
+            writeString(out, state.status);
+            writeString(out, state.statusMessage);
+            out.writeLong(state.statusSeq);
+            writeString(out, state.result);
+            out.writeLong(state.resultSeq);
+            out.writeLong(state.updatedNanos);
+            out.writeLong(state.baseSeq);
+            out.writeLong(state.lastSeq);
+            out.writeInt(state.events.size());
+            for (TaskEventLog.Event event : state.events) {
+                writeEvent(out, event);
+            }
+        });
+    }
+
+    private static void writeEvent(DataOutputStream out, TaskEventLog.Event event) throws IOException {
+        out.writeLong(event.seq);
+        out.writeLong(event.epochNanos);
+        out.writeByte(event.type.ordinal());
+        writeString(out, event.status);
+        writeString(out, event.message);
+    }
+
+    private static TaskEventLog.Event readEvent(ByteBuffer in) {
+        long seq = in.getLong();
+        long epochNanos = in.getLong();
+        TaskEventLog.Type type = TaskEventLog.Type.values()[in.get()];
+        return new TaskEventLog.Event(seq, epochNanos, type, readString(in), readString(in));
+    }
+
+    private interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] record(byte type, Payload payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            payload.writeTo(out);
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_BYTES, record.length - HEADER_BYTES);
+            ByteBuffer.wrap(record).putInt(record.length - HEADER_BYTES).putInt((int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 字符串编码为 长度 + UTF-8 字节，null 用长度 -1 表示
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                .sorted(Comparator.comparingLong(TaskJournal::segmentIndex))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentIndex(Path segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    int getPendingCount() { return pending.size(); }
+
+    int getSegmentCount() { return segmentCount; }
+
+    long getCommits() { return commits.get(); }
+
+    long getCompactions() { return compactions.get(); }
+
+    long getWriteFailures() { return writeFailures.get(); }
+
+    long getDropped() { return dropped.get(); }
+
+    /**
+     * 重放结果：按首次提交顺序排列的任务，以及出现过的最大任务编号
+     */
+    static final class Recovery {
+        private final int logCapacity;
+        private final Map<String, TaskExecution> tasks = new LinkedHashMap<>();
+        private long maxTaskNumber;
+
+        private Recovery(int logCapacity) {
+            this.logCapacity = logCapacity;
+        }
+
+        Collection<TaskExecution> getTasks() { return tasks.values(); }
+
+        long getMaxTaskNumber() { return maxTaskNumber; }
+
+        private void apply(ByteBuffer in) {
+            byte type = in.get();
+            if (type == COUNTER) {
+                maxTaskNumber = Math.max(maxTaskNumber, in.getLong());
+                return;
+            }
+            String taskId = readString(in);
+            TaskExecution task = tasks.get(taskId);
+            switch (type) {
+                case SUBMITTED: {
+                    long baseSeq = in.getLong();
+                    String userInput = readString(in);
+                    LocalDateTime createdAt = LocalDateTime.parse(readString(in));
+                    LocalDateTime deadline = LocalDateTime.parse(readString(in));
+                    // 重新排队的任务从原任务的最后序号起再次提交，覆盖旧状态；快照之后补写的原始提交事件被忽略
+                    if (task == null || baseSeq >= task.sequence()) {
+                        tasks.put(taskId, new TaskExecution(taskId, userInput, createdAt, deadline, logCapacity, baseSeq));
+                        trackTaskNumber(taskId);
+                    }
+                    break;
+                }
+                case EVENT: {
+                    TaskEventLog.Event event = readEvent(in);
+                    if (task != null) {
+                        task.replay(event);
+                    }
+                    break;
+                }
+                case SNAPSHOT: {
+                    String userInput = readString(in);
+                    LocalDateTime createdAt = LocalDateTime.parse(readString(in));
+                    LocalDateTime deadline = LocalDateTime.parse(readString(in));
+                    String status = readString(in);
+                    String statusMessage = readString(in);
+                    long statusSeq = in.getLong();
+                    String result = readString(in);
+                    long resultSeq = in.getLong();
+                    long updatedNanos = in.getLong();
+                    long baseSeq = in.getLong();
+                    long lastSeq = in.getLong();
+                    int count = in.getInt();
+                    List<TaskEventLog.Event> events = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        events.add(readEvent(in));
+                    }
+                    if (task == null || lastSeq >= task.sequence()) {
+                        TaskExecution.State state = new TaskExecution.State(status, statusMessage, statusSeq,
+                            result, resultSeq, updatedNanos, baseSeq, lastSeq, events);
+                        tasks.put(taskId, new TaskExecution(taskId, userInput, createdAt, deadline, state, logCapacity));
+                        trackTaskNumber(taskId);
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private void trackTaskNumber(String taskId) {
+            Matcher matcher = TASK_NUMBER.matcher(taskId);
+            if (matcher.matches()) {
+                maxTaskNumber = Math.max(maxTaskNumber, Long.parseLong(matcher.group(1)));
+            }
+        }
+    }
+}
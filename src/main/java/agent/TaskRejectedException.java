@@ -0,0 +1,19 @@
+package agent;
+
+/**
+ * 任务被准入控制拒绝
+ * 携带建议的重试等待秒数，供控制器生成 Retry-After 响应头
+ */
+public class TaskRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TaskRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,35 @@
+package agent;
+
+import java.util.List;
+
+/**
+ * 任务存储
+ * 编排器通过它登记、查询任务，存储实现决定已结束任务保留多久、保留在哪里
+ */
+interface TaskStore {
+
+    /**
+     * 登记新提交的任务
+     */
+    void put(TaskExecution task);
+
+    /**
+     * 任务进入终态（完成、失败、超时或取消），此后可以被淘汰
+     */
+    void markFinished(TaskExecution task);
+
+    /**
+     * 撤销登记（任务提交失败时）
+     */
+    void remove(String taskId);
+
+    /**
+     * 按ID查询任务，包括已淘汰但仍可从归档中读取的任务
+     */
+    TaskExecution get(String taskId);
+
+    /**
+     * 当前保留在内存中的任务（运行中以及尚未淘汰的已结束任务）
+     */
+    List<TaskExecution> list();
+}
@@ -0,0 +1,91 @@
+package agent;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 推送给客户端的任务更新
+ * 增量更新只携带上次推送以来新增的日志和变化的字段，seq 为本次更新包含的最后一个事件序号，
+ * fromSeq 为客户端应用本更新前必须已有的序号；完整快照（snapshot=true）携带任务的全部字段
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskUpdate {
+    private final String taskId;
+    private final boolean snapshot;
+    private final long fromSeq;
+    private final long seq;
+    private String userInput;
+    private LocalDateTime createdAt;
+    private LocalDateTime deadline;
+    private String status;
+    private String statusMessage;
+    private String result;
+    private LocalDateTime updatedAt;
+    private final List<String> logs = new ArrayList<>();
+
+    private TaskUpdate(String taskId, boolean snapshot, long fromSeq, long seq) {
+        this.taskId = taskId;
+        this.snapshot = snapshot;
+        this.fromSeq = fromSeq;
+        this.seq = seq;
+    }
+
+    /**
+     * 由连续事件生成增量更新，未出现对应事件的字段保持为空
+     */
+    static TaskUpdate delta(TaskExecution task, long fromSeq, List<TaskEventLog.Event> events) {
+        long seq = events.isEmpty() ? fromSeq : events.get(events.size() - 1).seq;
+        TaskUpdate update = new TaskUpdate(task.getTaskId(), false, fromSeq, seq);
+        for (TaskEventLog.Event event : events) {
+            if (event.type == TaskEventLog.Type.STATUS) {
+                update.status = event.status;
+                update.statusMessage = event.message;
+            }
+            if (event.type == TaskEventLog.Type.RESULT) {
+                update.result = event.message;
+            } else {
+                update.logs.add(event.format());
+            }
+            update.updatedAt = TaskEventLog.toLocalDateTime(event.epochNanos);
+        }
+        return update;
+    }
+
+    /**
+     * 完整快照，日志取保留事件中的连续部分，seq 为其中最后一个事件的序号
+     */
+    static TaskUpdate snapshot(TaskExecution task, TaskExecution.State state, List<TaskEventLog.Event> events) {
+        long seq = events.isEmpty() ? state.baseSeq : events.get(events.size() - 1).seq;
+        TaskUpdate update = new TaskUpdate(task.getTaskId(), true, 0, seq);
+        update.userInput = task.getUserInput();
+        update.createdAt = task.getCreatedAt();
+        update.deadline = task.getDeadline();
+        update.status = state.status;
+        update.statusMessage = state.statusMessage;
+        update.result = state.result;
+        update.updatedAt = TaskEventLog.toLocalDateTime(state.updatedNanos);
+        for (TaskEventLog.Event event : events) {
+            if (event.type != TaskEventLog.Type.RESULT) {
+                update.logs.add(event.format());
+            }
+        }
+        return update;
+    }
+
+    // Getters
+    public String getTaskId() { return taskId; }
+    public boolean isSnapshot() { return snapshot; }
+    public long getFromSeq() { return fromSeq; }
+    public long getSeq() { return seq; }
+    public String getUserInput() { return userInput; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public LocalDateTime getDeadline() { return deadline; }
+    public String getStatus() { return status; }
+    public String getStatusMessage() { return statusMessage; }
+    public String getResult() { return result; }
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public List<String> getLogs() { return logs; }
+}
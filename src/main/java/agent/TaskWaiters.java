@@ -0,0 +1,58 @@
+package agent;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 长轮询等待者登记
+ * 等待者只是一个 CompletableFuture，不占用线程；任务状态变化时由追加事件的线程一次性完成该任务的全部等待者
+ */
+final class TaskWaiters implements TaskEventListener {
+
+    private final Map<String, Queue<CompletableFuture<TaskExecution>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 任务状态不再是 knownStatus 时完成；登记时状态已经变化则立即完成。
+     * 调用方取消 future（如等待超时）后等待者被移除
+     */
+    CompletableFuture<TaskExecution> await(TaskExecution task, String knownStatus) {
+        String taskId = task.getTaskId();
+        CompletableFuture<TaskExecution> future = new CompletableFuture<>();
+        waiters.compute(taskId, (id, queue) -> {
+            Queue<CompletableFuture<TaskExecution>> target = queue != null ? queue : new ConcurrentLinkedQueue<>();
+            target.add(future);
+            return target;
+        });
+        // 登记前状态可能已经变化，状态先于监听器通知写入，这里重新检查不会漏掉
+        if (!task.getStatus().equals(knownStatus)) {
+            future.complete(task);
+        }
+        future.whenComplete((result, error) -> waiters.computeIfPresent(taskId, (id, queue) -> {
+            queue.remove(future);
+            return queue.isEmpty() ? null : queue;
+        }));
+        return future;
+    }
+
+    @Override
+    public void onEvent(TaskExecution task, TaskEventLog.Event event) {
+        if (event.type != TaskEventLog.Type.STATUS) {
+            return;
+        }
+        Queue<CompletableFuture<TaskExecution>> queue = waiters.remove(task.getTaskId());
+        if (queue != null) {
+            queue.forEach(future -> future.complete(task));
+        }
+    }
+
+    int size() {
+        int count = 0;
+        for (Queue<CompletableFuture<TaskExecution>> queue : waiters.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+}
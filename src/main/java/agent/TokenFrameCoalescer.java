@@ -0,0 +1,81 @@
+package agent;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * token 帧合并器
+ * 将逐个到达的 token 攒成小帧再推送：缓冲达到字符上限或距上次推送超过时间间隔时发送一帧，关闭时发送剩余内容。
+ * 缓冲有内容时在调度器上定时发送，模型停顿（如流式步骤中的工具调用往返）期间已到达的内容不会滞留
+ */
+class TokenFrameCoalescer implements AutoCloseable {
+
+    private final Consumer<String> sink;
+    private final int maxChars;
+    private final long intervalNanos;
+    private final ScheduledExecutorService scheduler;
+    private final StringBuilder buffer = new StringBuilder();
+    private long lastFlushNanos = System.nanoTime();
+    private ScheduledFuture<?> pendingFlush;
+    private boolean closed;
+
+    TokenFrameCoalescer(Consumer<String> sink, int maxChars, long intervalMillis, ScheduledExecutorService scheduler) {
+        this.sink = sink;
+        this.maxChars = Math.max(1, maxChars);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMillis));
+        this.scheduler = scheduler;
+    }
+
+    synchronized void append(String token) {
+        // 步骤中止后模型可能仍在输出，关闭后到达的 token 直接丢弃
+        if (closed || token == null || token.isEmpty()) {
+            return;
+        }
+        buffer.append(token);
+        if (buffer.length() >= maxChars || System.nanoTime() - lastFlushNanos >= intervalNanos) {
+            flush();
+        } else if (pendingFlush == null) {
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            flush();
+            closed = true;
+        }
+    }
+
+    private void scheduleFlush() {
+        long delay = intervalNanos - (System.nanoTime() - lastFlushNanos);
+        try {
+            pendingFlush = scheduler.schedule(this::flushOnTimer, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中，剩余内容在下一个 token 或关闭时发送
+        }
+    }
+
+    private synchronized void flushOnTimer() {
+        pendingFlush = null;
+        if (!closed) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (buffer.length() > 0) {
+            String frame = buffer.toString();
+            buffer.setLength(0);
+            sink.accept(frame);
+        }
+        lastFlushNanos = System.nanoTime();
+    }
+}
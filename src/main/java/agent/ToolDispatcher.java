@@ -0,0 +1,215 @@
+package agent;
+
+import dev.langchain4j.agent.tool.Tool;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 工具直连调度表
+ * 启动时扫描工具类上的 @Tool 方法并预编译为 MethodHandle，
+ * 当规划步骤的 action/params 能直接绑定到某个工具方法时，跳过 Agent 的 LLM 调用直接执行
+ */
+class ToolDispatcher {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    // agent -> 归一化方法名 -> 同名工具方法（可能有重载）
+    private final Map<String, Map<String, List<ToolMethod>>> registry = new HashMap<>();
+
+    /**
+     * 注册某个 Agent 的工具实例
+     */
+    void register(String agent, Object tool) {
+        Map<String, List<ToolMethod>> methods = registry.computeIfAbsent(agent, k -> new HashMap<>());
+        for (Method method : tool.getClass().getMethods()) {
+            if (!method.isAnnotationPresent(Tool.class) || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            try {
+                MethodHandle handle = MethodHandles.publicLookup()
+                    .unreflect(method)
+                    .bindTo(tool)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(INVOKER_TYPE);
+                methods.computeIfAbsent(normalizeName(method.getName()), k -> new ArrayList<>())
+                    .add(new ToolMethod(method.getName(), method.getParameters(), handle));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("无法注册工具方法: " + method, e);
+            }
+        }
+    }
+
+    /**
+     * 尝试直接调用工具方法
+     *
+     * @return 工具执行结果；action 或 params 无法绑定到任何工具方法时返回 null
+     */
+    String tryInvoke(String agent, String action, Map<String, Object> params) throws Exception {
+        if (action == null) {
+            return null;
+        }
+        List<ToolMethod> candidates = registry.getOrDefault(agent, Map.of()).get(normalizeName(action));
+        if (candidates == null) {
+            return null;
+        }
+        Map<String, Object> normalizedParams = normalizeParams(params);
+        for (ToolMethod candidate : candidates) {
+            Object[] args = candidate.bind(normalizedParams);
+            if (args != null) {
+                return String.valueOf(candidate.invoke(args));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 步骤能否直接绑定到工具方法（不执行）
+     */
+    boolean canInvoke(String agent, String action, Map<String, Object> params) {
+        return boundMethod(agent, action, params) != null;
+    }
+
+    /**
+     * 步骤直接绑定到的工具方法名（不执行）
+     *
+     * @return 方法名，如 readFile；无法绑定到任何工具方法时返回 null
+     */
+    String boundMethod(String agent, String action, Map<String, Object> params) {
+        if (action == null) {
+            return null;
+        }
+        List<ToolMethod> candidates = registry.getOrDefault(agent, Map.of()).get(normalizeName(action));
+        if (candidates == null) {
+            return null;
+        }
+        Map<String, Object> normalizedParams = normalizeParams(params);
+        for (ToolMethod candidate : candidates) {
+            if (candidate.bind(normalizedParams) != null) {
+                return candidate.name;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> normalizeParams(Map<String, Object> params) {
+        Map<String, Object> normalizedParams = new HashMap<>();
+        if (params != null) {
+            params.forEach((key, value) -> normalizedParams.put(normalizeName(key), value));
+        }
+        return normalizedParams;
+    }
+
+    /**
+     * 名称归一化：忽略大小写、下划线和连字符，使 get_weather / target_language 对应 getWeather / targetLanguage
+     */
+    private static String normalizeName(String name) {
+        return name.replace("_", "").replace("-", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static final class ToolMethod {
+        private final String name;
+        private final Parameter[] parameters;
+        private final String[] parameterNames;
+        private final MethodHandle handle;
+
+        ToolMethod(String name, Parameter[] parameters, MethodHandle handle) {
+            this.name = name;
+            this.parameters = parameters;
+            this.handle = handle;
+            this.parameterNames = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                parameterNames[i] = normalizeName(parameters[i].getName());
+            }
+        }
+
+        /**
+         * 将 JSON 参数绑定并转换为方法实参，参数数量或类型不匹配时返回 null
+         * 多余的参数可能带有语义（如单位），因此同样视为无法绑定
+         */
+        Object[] bind(Map<String, Object> params) {
+            if (params.size() != parameters.length) {
+                return null;
+            }
+            Object[] args = new Object[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                Object value;
+                if (params.containsKey(parameterNames[i])) {
+                    value = params.get(parameterNames[i]);
+                } else if (parameters.length == 1) {
+                    // 单参数方法按位置绑定，如 {"city": "北京"} -> getWeather(String)
+                    value = params.values().iterator().next();
+                } else {
+                    return null;
+                }
+                Object coerced = coerce(value, parameters[i].getType());
+                if (coerced == null) {
+                    return null;
+                }
+                args[i] = coerced;
+            }
+            return args;
+        }
+
+        Object invoke(Object[] args) throws Exception {
+            try {
+                return (Object) handle.invokeExact(args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private static Object coerce(Object value, Class<?> type) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                if (type == String.class) {
+                    return value instanceof String || value instanceof Number || value instanceof Boolean
+                        ? value.toString() : null;
+                }
+                if (type == int.class || type == Integer.class) {
+                    if (value instanceof Number) {
+                        double d = ((Number) value).doubleValue();
+                        return d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE ? (int) d : null;
+                    }
+                    return value instanceof String ? Integer.parseInt(((String) value).trim()) : null;
+                }
+                if (type == long.class || type == Long.class) {
+                    if (value instanceof Number) {
+                        double d = ((Number) value).doubleValue();
+                        return d == Math.rint(d) ? ((Number) value).longValue() : null;
+                    }
+                    return value instanceof String ? Long.parseLong(((String) value).trim()) : null;
+                }
+                if (type == double.class || type == Double.class) {
+                    if (value instanceof Number) {
+                        return ((Number) value).doubleValue();
+                    }
+                    return value instanceof String ? Double.parseDouble(((String) value).trim()) : null;
+                }
+                if (type == boolean.class || type == Boolean.class) {
+                    if (value instanceof Boolean) {
+                        return value;
+                    }
+                    String text = value instanceof String ? ((String) value).trim() : "";
+                    return "true".equalsIgnoreCase(text) ? Boolean.TRUE : "false".equalsIgnoreCase(text) ? Boolean.FALSE : null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package config;
+
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.InternalServerException;
+import dev.langchain4j.exception.RateLimitException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模型调用自适应并发限制器（AIMD + 延迟梯度）
+ * - 调用成功且延迟信号接近空载基线时，限制按 1/limit 加性增长（每个窗口约 +1）
+ * - 延迟信号明显高于空载基线时，按比例小幅收缩
+ * - 遇到 429 或 5xx 时，限制乘性减半
+ * 模型调用的端到端延迟随输出长度增长，不能直接作为拥塞信号：流式调用取首 token 延迟，
+ * 非流式调用取每个输出 token 的平均延迟（输出过短时由预填充主导，不参与调整），各信号分别维护基线。
+ * 超出限制的调用方在此排队等待许可
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+    // 空载延迟缓慢上浮，避免一次偶然的低延迟永久压低基线
+    private static final double NO_LOAD_DRIFT = 0.01;
+    // 输出少于该 token 数的非流式调用不提供延迟信号
+    private static final int MIN_OUTPUT_TOKENS = 16;
+
+    /**
+     * 与输出长度无关的延迟信号
+     */
+    public enum Signal {
+        /** 流式调用从发出请求到收到第一段输出的延迟 */
+        FIRST_TOKEN,
+        /** 非流式调用的端到端延迟除以输出 token 数 */
+        OUTPUT_TOKEN
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    // 按信号分别记录的空载基线
+    private final double[] noLoadLatencyNanos = {Double.NaN, Double.NaN};
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 获取调用许可，超出当前限制时阻塞排队
+     *
+     * @return 排队等待的纳秒数
+     */
+    public long acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    permitAvailable.await();
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 非流式调用成功：输出足够长时以每个输出 token 的延迟调整限制，否则只释放许可
+     *
+     * @param outputTokens 输出 token 数，模型未返回用量时为 null
+     */
+    public void onSuccess(long latencyNanos, Integer outputTokens) {
+        if (outputTokens != null && outputTokens >= MIN_OUTPUT_TOKENS) {
+            onSuccess(Signal.OUTPUT_TOKEN, latencyNanos / outputTokens);
+        } else {
+            release();
+        }
+    }
+
+    /**
+     * 调用成功，按延迟信号调整限制并释放许可
+     */
+    public void onSuccess(Signal signal, long sampleNanos) {
+        lock.lock();
+        try {
+            int index = signal.ordinal();
+            double baseline = noLoadLatencyNanos[index];
+            if (Double.isNaN(baseline) || sampleNanos < baseline) {
+                baseline = sampleNanos;
+            } else {
+                baseline += (sampleNanos - baseline) * NO_LOAD_DRIFT;
+            }
+            noLoadLatencyNanos[index] = baseline;
+            if (sampleNanos > baseline * latencyTolerance) {
+                limit = Math.max(minLimit, limit * LATENCY_BACKOFF_RATIO);
+            } else if (inFlight >= (int) limit - 1) {
+                // 只有许可接近用满时才增长，避免空闲时限制无意义地膨胀
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用成功但没有可用的延迟信号，只释放许可
+     */
+    public void release() {
+        lock.lock();
+        try {
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用失败：过载类错误（429/5xx）乘性收缩，其他错误（包括客户端超时）只释放许可
+     */
+    public void onFailure(Throwable error) {
+        lock.lock();
+        try {
+            if (isOverload(error)) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            }
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked() {
+        inFlight--;
+        permitAvailable.signalAll();
+    }
+
+    static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RateLimitException || t instanceof InternalServerException) {
+                return true;
+            }
+            if (t instanceof HttpException) {
+                int status = ((HttpException) t).statusCode();
+                return status == 429 || status >= 500;
+            }
+        }
+        return false;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getNoLoadLatencyMillis(Signal signal) {
+        lock.lock();
+        try {
+            double baseline = noLoadLatencyNanos[signal.ordinal()];
+            return Double.isNaN(baseline) ? 0 : baseline / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
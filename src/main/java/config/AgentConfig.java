@@ -1,12 +1,34 @@
 package config;
 
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Agent 统一配置类
@@ -35,6 +57,182 @@ public class AgentConfig {
     @Value("${app.agent.task-timeout-seconds:300}")
     private int taskTimeoutSeconds;
     
+    // 隔离线程池配置：任务协调与步骤执行使用独立的有界线程池
+    @Value("${app.agent.executors.task-queue-capacity:100}")
+    private int taskQueueCapacity;
+    
+    @Value("${app.agent.executors.step-threads:20}")
+    private int stepThreads;
+    
+    @Value("${app.agent.executors.step-queue-capacity:200}")
+    private int stepQueueCapacity;
+    
+    @Value("${app.agent.executors.per-agent:false}")
+    private boolean perAgentExecutors;
+    
+    @Value("${app.agent.executors.per-agent-threads:4}")
+    private int perAgentThreads;
+    
+    @Value("${app.agent.executors.per-agent-queue-capacity:50}")
+    private int perAgentQueueCapacity;
+    
+    // SSE/NDJSON 流的发送线程池：慢客户端的阻塞写出最多占用这些线程
+    @Value("${app.agent.executors.stream-sender-threads:8}")
+    private int streamSenderThreads;
+    
+    @Value("${app.agent.executors.stream-sender-queue-capacity:1000}")
+    private int streamSenderQueueCapacity;
+    
+    // 每个任务保留的最近事件（状态变更与日志）条数，超过后覆盖最旧的事件
+    @Value("${app.agent.task-log-capacity:500}")
+    private int taskLogCapacity;
+    
+    // 任务存储：已结束任务的保留时间、内存上限和归档目录（为空则不归档）
+    @Value("${app.agent.task-store.ttl-seconds:3600}")
+    private long taskStoreTtlSeconds;
+    
+    @Value("${app.agent.task-store.max-retained-mb:64}")
+    private long taskStoreMaxRetainedMb;
+    
+    @Value("${app.agent.task-store.archive-dir:}")
+    private String taskStoreArchiveDir;
+    
+    @Value("${app.agent.task-store.archive-max-files:10000}")
+    private int taskStoreArchiveMaxFiles;
+    
+    @Value("${app.agent.task-store.archive-max-age-hours:168}")
+    private long taskStoreArchiveMaxAgeHours;
+    
+    // 任务日志：记录任务生命周期事件，重启后据此恢复任务
+    @Value("${app.agent.journal.enabled:false}")
+    private boolean journalEnabled;
+    
+    @Value("${app.agent.journal.dir:data/journal}")
+    private String journalDir;
+    
+    @Value("${app.agent.journal.segment-size-mb:8}")
+    private int journalSegmentSizeMb;
+    
+    @Value("${app.agent.journal.max-segments:4}")
+    private int journalMaxSegments;
+    
+    @Value("${app.agent.journal.linger-ms:2}")
+    private long journalLingerMs;
+    
+    @Value("${app.agent.journal.queue-capacity:10000}")
+    private int journalQueueCapacity;
+    
+    @Value("${app.agent.journal.recovery:interrupt}")
+    private String journalRecovery;
+    
+    // 流式输出配置：自由文本步骤通过流式模型逐步推送 token
+    @Value("${app.agent.streaming.enabled:true}")
+    private boolean streamingEnabled;
+    
+    @Value("${app.agent.streaming.frame-interval-ms:100}")
+    private long streamingFrameIntervalMs;
+    
+    @Value("${app.agent.streaming.frame-max-chars:64}")
+    private int streamingFrameMaxChars;
+    
+    @Value("${app.agent.planner.streaming:false}")
+    private boolean streamingPlannerEnabled;
+    
+    // 关键词预路由：只命中一种意图的输入直接交给对应 Agent，跳过 LLM 规划
+    @Value("${app.agent.router.enabled:true}")
+    private boolean routerEnabled;
+    
+    // 大于 0 时规划调用超过该时间即回退到关键词路由结果，0 表示不限制
+    @Value("${app.agent.router.planner-budget-ms:0}")
+    private long routerPlannerBudgetMs;
+    
+    @Value("${app.agent.router.keywords.calculator:计算,数学,算一下,等于多少,加上,减去,乘以,除以,平方根}")
+    private String[] routerCalculatorKeywords;
+    
+    @Value("${app.agent.router.keywords.weather:天气,温度,气温,湿度,下雨,下雪}")
+    private String[] routerWeatherKeywords;
+    
+    @Value("${app.agent.router.keywords.time:时间,几点,时区,日期,今天几号}")
+    private String[] routerTimeKeywords;
+    
+    @Value("${app.agent.router.keywords.translator:翻译,译成,译为,英译中,中译英}")
+    private String[] routerTranslatorKeywords;
+    
+    @Value("${app.agent.router.keywords.search:搜索,查找资料,搜一下,技术趋势,解决方案}")
+    private String[] routerSearchKeywords;
+    
+    @Value("${app.agent.router.keywords.file:文件,目录,文件夹}")
+    private String[] routerFileKeywords;
+    
+    // 表示输入包含多个先后步骤的连接词，命中时交给 LLM 规划
+    @Value("${app.agent.router.sequence-markers:然后,接着,之后,再把,再将,并且,同时}")
+    private String[] routerSequenceMarkers;
+    
+    // 映射步骤：对列表参数的每一项执行同一操作，限制单个步骤的并发项数和总项数
+    @Value("${app.agent.map-steps.max-parallelism:4}")
+    private int mapStepMaxParallelism;
+    
+    @Value("${app.agent.map-steps.max-items:50}")
+    private int mapStepMaxItems;
+    
+    // 单次调用模式：自动模式下规划缓存、模板和路由都未命中时，没有多步连接词且未命中关键词的短输入由通用助手一次调用完成（默认关闭）
+    @Value("${app.agent.single-shot.auto:false}")
+    private boolean singleShotAuto;
+    
+    @Value("${app.agent.single-shot.max-input-chars:20}")
+    private int singleShotMaxInputChars;
+    
+    // 长轮询：GET /api/agent/task/{taskId}?waitMs= 的最长等待时间
+    @Value("${app.agent.long-poll.max-wait-ms:30000}")
+    private long longPollMaxWaitMs;
+    
+    // WebSocket 推送：是否同时发送到所有客户端共享的广播主题（供监控面板使用）
+    @Value("${app.agent.websocket.broadcast:false}")
+    private boolean websocketBroadcast;
+    
+    // WebSocket 通道线程池与每个会话的发送限制
+    @Value("${app.agent.websocket.inbound-threads:4}")
+    private int websocketInboundThreads;
+    
+    @Value("${app.agent.websocket.outbound-threads:4}")
+    private int websocketOutboundThreads;
+    
+    @Value("${app.agent.websocket.channel-queue-capacity:1000}")
+    private int websocketChannelQueueCapacity;
+    
+    @Value("${app.agent.websocket.send-buffer-size-kb:512}")
+    private int websocketSendBufferSizeKb;
+    
+    @Value("${app.agent.websocket.send-time-limit-ms:10000}")
+    private int websocketSendTimeLimitMs;
+    
+    @Value("${app.agent.websocket.message-size-limit-kb:64}")
+    private int websocketMessageSizeLimitKb;
+    
+    // 慢消费者策略：disconnect 超出发送限制后断开，coalesce 拥塞时丢弃中间进度消息
+    @Value("${app.agent.websocket.slow-consumer.policy:disconnect}")
+    private String websocketSlowConsumerPolicy;
+    
+    @Value("${app.agent.websocket.slow-consumer.threshold-ms:1000}")
+    private long websocketSlowConsumerThresholdMs;
+    
+    // 模型调用自适应并发限制
+    @Value("${app.agent.llm-limiter.initial-limit:10}")
+    private int llmInitialLimit;
+    
+    @Value("${app.agent.llm-limiter.min-limit:1}")
+    private int llmMinLimit;
+    
+    @Value("${app.agent.llm-limiter.max-limit:50}")
+    private int llmMaxLimit;
+    
+    @Value("${app.agent.llm-limiter.latency-tolerance:2.0}")
+    private double llmLatencyTolerance;
+    
+    // 准入控制：已提交但未开始执行的任务上限，超出时返回 429
+    @Value("${app.agent.admission.queue-capacity:50}")
+    private int admissionQueueCapacity;
+    
     // 聊天记忆配置
     @Value("${app.agent.max-messages:10}")
     private int maxMessages;
@@ -43,20 +241,117 @@ public class AgentConfig {
     @Value("${app.agent.max-tool-calls-per-request:5}")
     private int maxToolCallsPerRequest;
     
+    // 规划缓存配置
+    @Value("${app.agent.enable-caching:true}")
+    private boolean cachingEnabled;
+    
+    @Value("${app.agent.plan-cache.max-size:500}")
+    private int planCacheMaxSize;
+    
+    @Value("${app.agent.plan-cache.ttl-seconds:600}")
+    private long planCacheTtlSeconds;
+    
+    // 规划优化：执行前去重、重建依赖、顺序改并发，可选合并相邻的同 Agent 步骤
+    @Value("${app.agent.plan-optimizer.enabled:true}")
+    private boolean planOptimizerEnabled;
+    
+    @Value("${app.agent.plan-optimizer.fuse-steps:false}")
+    private boolean planOptimizerFuseSteps;
+    
+    // 某个 Agent 还没有耗时样本时的步骤耗时估计
+    @Value("${app.agent.plan-optimizer.default-step-latency-ms:3000}")
+    private long planOptimizerDefaultStepLatencyMs;
+    
+    // 规划模板库：从成功的规划学习参数化模板，超过上限时淘汰使用次数最少的模板
+    @Value("${app.agent.plan-templates.max-size:1000}")
+    private int planTemplatesMaxSize;
+    
+    // 步骤结果缓存配置
+    @Value("${app.agent.step-cache.max-weight-mb:32}")
+    private long stepCacheMaxWeightMb;
+    
+    @Value("${app.agent.step-cache.weather-ttl-seconds:300}")
+    private long stepCacheWeatherTtlSeconds;
+    
+    @Value("${app.agent.step-cache.search-ttl-seconds:600}")
+    private long stepCacheSearchTtlSeconds;
+    
     // 缓存配置
-    private OpenAiChatModel cachedModel;
+    private ChatModel cachedModel;
+    private StreamingChatModel cachedStreamingModel;
+    private AdaptiveConcurrencyLimiter llmLimiter;
+    private Timer llmQueueWaitTimer;
     private ExecutorService cachedExecutorService;
+    private ExecutorService cachedStepExecutorService;
+    private final Map<String, ExecutorService> cachedAgentExecutorServices = new ConcurrentHashMap<>();
+    private ScheduledExecutorService cachedDeadlineScheduler;
+    private ExecutorService cachedStreamSenderExecutorService;
+    // 经 getRejectingStepExecutor 提交时置位：队列满时拒绝，而不是由提交线程执行
+    private static final ThreadLocal<Boolean> REJECT_WHEN_SATURATED = new ThreadLocal<>();
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
     
     /**
-     * 获取或创建 OpenAI 模型实例
+     * 获取共享的模型实例，所有调用都经过自适应并发限制器
      */
-    public OpenAiChatModel getModel() {
+    public synchronized ChatModel getModel() {
         if (cachedModel == null) {
-            cachedModel = createModel();
+            cachedModel = new LimitedChatModel(createModel(), getLlmLimiter(), llmQueueWaitTimer);
         }
         return cachedModel;
     }
     
+    /**
+     * 获取共享的流式模型实例，与 getModel() 共用同一个并发限制器
+     */
+    public synchronized StreamingChatModel getStreamingModel() {
+        if (cachedStreamingModel == null) {
+            cachedStreamingModel = new LimitedStreamingChatModel(OpenAiStreamingChatModel.builder()
+                    .baseUrl(baseUrl)
+                    .apiKey(getApiKey())
+                    .modelName(modelName)
+                    .temperature(temperature)
+                    .maxTokens(maxTokens)
+                    .build(), getLlmLimiter(), llmQueueWaitTimer);
+        }
+        return cachedStreamingModel;
+    }
+    
+    /**
+     * 获取模型调用自适应并发限制器，并导出当前限制、在途请求、排队数和排队耗时指标
+     */
+    private synchronized AdaptiveConcurrencyLimiter getLlmLimiter() {
+        if (llmLimiter == null) {
+            llmLimiter = new AdaptiveConcurrencyLimiter(llmInitialLimit, llmMinLimit, llmMaxLimit, llmLatencyTolerance);
+            Gauge.builder("agent.llm.limit", llmLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("当前允许的模型并发调用数")
+                .register(meterRegistry);
+            Gauge.builder("agent.llm.inflight", llmLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("正在进行的模型调用数")
+                .register(meterRegistry);
+            Gauge.builder("agent.llm.waiting", llmLimiter, AdaptiveConcurrencyLimiter::getWaiting)
+                .description("排队等待调用许可的请求数")
+                .register(meterRegistry);
+            Gauge.builder("agent.llm.latency.noload", llmLimiter,
+                    limiter -> limiter.getNoLoadLatencyMillis(AdaptiveConcurrencyLimiter.Signal.FIRST_TOKEN))
+                .description("估算的空载延迟信号：流式调用的首 token 延迟")
+                .tag("signal", "first-token")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+            Gauge.builder("agent.llm.latency.noload", llmLimiter,
+                    limiter -> limiter.getNoLoadLatencyMillis(AdaptiveConcurrencyLimiter.Signal.OUTPUT_TOKEN))
+                .description("估算的空载延迟信号：非流式调用每个输出 token 的延迟")
+                .tag("signal", "output-token")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+            llmQueueWaitTimer = Timer.builder("agent.llm.queue.wait")
+                .description("模型调用在限制器中的排队耗时")
+                .register(meterRegistry);
+        }
+        return llmLimiter;
+    }
+    
     /**
      * 创建新的 OpenAI 模型实例
      */
@@ -84,15 +379,110 @@ public class AgentConfig {
     }
     
     /**
-     * 获取线程池执行器
+     * 获取任务协调线程池（有界队列，队列满时拒绝提交）
      */
-    public ExecutorService getExecutorService() {
+    public synchronized ExecutorService getExecutorService() {
         if (cachedExecutorService == null || cachedExecutorService.isShutdown()) {
-            cachedExecutorService = Executors.newFixedThreadPool(maxConcurrentTasks);
+            cachedExecutorService = createBoundedExecutor("agent-task", maxConcurrentTasks, taskQueueCapacity,
+                new ThreadPoolExecutor.AbortPolicy());
         }
         return cachedExecutorService;
     }
     
+    /**
+     * 获取步骤执行线程池，与任务协调线程池隔离，避免父任务等待子步骤时互相饿死
+     * 队列满时由提交线程执行，形成自然的背压
+     */
+    public synchronized ExecutorService getStepExecutorService() {
+        if (cachedStepExecutorService == null || cachedStepExecutorService.isShutdown()) {
+            cachedStepExecutorService = createBoundedExecutor("agent-step", stepThreads, stepQueueCapacity,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return cachedStepExecutorService;
+    }
+    
+    /**
+     * 获取指定 Agent 的步骤执行线程池
+     * 开启 per-agent 时每种 Agent 独立线程池，单个慢 Agent 不会占满所有步骤线程
+     */
+    public ExecutorService getStepExecutorService(String agentName) {
+        if (!perAgentExecutors) {
+            return getStepExecutorService();
+        }
+        return cachedAgentExecutorServices.compute(agentName, (name, existing) ->
+            existing != null && !existing.isShutdown() ? existing
+                : createBoundedExecutor("agent-step-" + name, perAgentThreads, perAgentQueueCapacity,
+                    new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+    
+    /**
+     * 获取指定 Agent 步骤线程池的拒绝式视图：队列满时抛出 RejectedExecutionException，不由提交线程执行
+     * 供流式规划提前派发步骤使用，避免整个步骤在模型流式回调线程上执行
+     */
+    public Executor getRejectingStepExecutor(String agentName) {
+        ExecutorService executor = getStepExecutorService(agentName);
+        return runnable -> {
+            REJECT_WHEN_SATURATED.set(Boolean.TRUE);
+            try {
+                executor.execute(runnable);
+            } finally {
+                REJECT_WHEN_SATURATED.remove();
+            }
+        };
+    }
+    
+    /**
+     * 获取 SSE/NDJSON 流的发送线程池（有界队列，队列满时拒绝提交，由调用方关闭对应的流）
+     */
+    public synchronized ExecutorService getStreamSenderExecutorService() {
+        if (cachedStreamSenderExecutorService == null || cachedStreamSenderExecutorService.isShutdown()) {
+            cachedStreamSenderExecutorService = createBoundedExecutor("agent-stream-sender", streamSenderThreads,
+                streamSenderQueueCapacity, new ThreadPoolExecutor.AbortPolicy());
+        }
+        return cachedStreamSenderExecutorService;
+    }
+    
+    /**
+     * 获取任务截止时间调度器，到期时中止超时任务
+     */
+    public synchronized ScheduledExecutorService getDeadlineScheduler() {
+        if (cachedDeadlineScheduler == null || cachedDeadlineScheduler.isShutdown()) {
+            cachedDeadlineScheduler = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("agent-deadline"));
+        }
+        return cachedDeadlineScheduler;
+    }
+    
+    /**
+     * 创建有界线程池，并导出线程数、活跃数、队列深度和拒绝次数等饱和度指标
+     */
+    private ExecutorService createBoundedExecutor(String name, int threads, int queueCapacity,
+                                                  RejectedExecutionHandler rejectionPolicy) {
+        Counter rejected = Counter.builder("agent.executor.rejected")
+            .description("线程池队列已满时被拒绝（或由调用方执行）的提交次数")
+            .tag("name", name)
+            .register(meterRegistry);
+        RejectedExecutionHandler countingPolicy = (runnable, executor) -> {
+            rejected.increment();
+            if (REJECT_WHEN_SATURATED.get() != null) {
+                throw new RejectedExecutionException(name + " 队列已满");
+            }
+            rejectionPolicy.rejectedExecution(runnable, executor);
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), namedThreadFactory(name), countingPolicy);
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+    
+    private static ThreadFactory namedThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
 
     
     /**
@@ -130,6 +520,7 @@ public class AgentConfig {
         info.append("  - 最大令牌数: ").append(maxTokens).append("\n");
         info.append("  - 最大并发任务: ").append(maxConcurrentTasks).append("\n");
         info.append("  - 任务超时时间: ").append(taskTimeoutSeconds).append("秒\n");
+        info.append("  - 步骤线程数: ").append(perAgentExecutors ? perAgentThreads + " (每个Agent)" : String.valueOf(stepThreads)).append("\n");
         info.append("  - 最大消息数: ").append(maxMessages).append("\n");
         info.append("  - 最大工具调用数: ").append(maxToolCallsPerRequest).append("\n");
         info.append("  - API Key: ").append(validateEnvironment() ? "✅ 已配置" : "❌ 未配置").append("\n");
@@ -145,6 +536,66 @@ public class AgentConfig {
     public int getTaskTimeoutSeconds() { return taskTimeoutSeconds; }
     public int getMaxMessages() { return maxMessages; }
     public int getMaxToolCallsPerRequest() { return maxToolCallsPerRequest; }
+    public int getTaskLogCapacity() { return taskLogCapacity; }
+    public long getTaskStoreTtlSeconds() { return taskStoreTtlSeconds; }
+    public long getTaskStoreMaxRetainedMb() { return taskStoreMaxRetainedMb; }
+    public String getTaskStoreArchiveDir() { return taskStoreArchiveDir; }
+    public int getTaskStoreArchiveMaxFiles() { return taskStoreArchiveMaxFiles; }
+    public long getTaskStoreArchiveMaxAgeHours() { return taskStoreArchiveMaxAgeHours; }
+    public boolean isJournalEnabled() { return journalEnabled; }
+    public String getJournalDir() { return journalDir; }
+    public int getJournalSegmentSizeMb() { return journalSegmentSizeMb; }
+    public int getJournalMaxSegments() { return journalMaxSegments; }
+    public long getJournalLingerMs() { return journalLingerMs; }
+    public int getJournalQueueCapacity() { return journalQueueCapacity; }
+    public String getJournalRecovery() { return journalRecovery; }
+    public boolean isStreamingEnabled() { return streamingEnabled; }
+    public boolean isStreamingPlannerEnabled() { return streamingPlannerEnabled; }
+    public long getStreamingFrameIntervalMs() { return streamingFrameIntervalMs; }
+    public int getStreamingFrameMaxChars() { return streamingFrameMaxChars; }
+    public long getLongPollMaxWaitMs() { return longPollMaxWaitMs; }
+    public boolean isSingleShotAuto() { return singleShotAuto; }
+    public int getMapStepMaxParallelism() { return mapStepMaxParallelism; }
+    public int getMapStepMaxItems() { return mapStepMaxItems; }
+    public int getSingleShotMaxInputChars() { return singleShotMaxInputChars; }
+    public boolean isRouterEnabled() { return routerEnabled; }
+    public long getRouterPlannerBudgetMs() { return routerPlannerBudgetMs; }
+    public String[] getRouterSequenceMarkers() { return routerSequenceMarkers; }
+    
+    /**
+     * 关键词预路由的关键词表：Agent 名称 -> 关键词
+     */
+    public Map<String, String[]> getRouterKeywords() {
+        Map<String, String[]> keywords = new LinkedHashMap<>();
+        keywords.put("calculator", routerCalculatorKeywords);
+        keywords.put("weather", routerWeatherKeywords);
+        keywords.put("time", routerTimeKeywords);
+        keywords.put("translator", routerTranslatorKeywords);
+        keywords.put("search", routerSearchKeywords);
+        keywords.put("file", routerFileKeywords);
+        return keywords;
+    }
+    
+    public boolean isWebsocketBroadcast() { return websocketBroadcast; }
+    public int getWebsocketInboundThreads() { return websocketInboundThreads; }
+    public int getWebsocketOutboundThreads() { return websocketOutboundThreads; }
+    public int getWebsocketChannelQueueCapacity() { return websocketChannelQueueCapacity; }
+    public int getWebsocketSendBufferSizeKb() { return websocketSendBufferSizeKb; }
+    public int getWebsocketSendTimeLimitMs() { return websocketSendTimeLimitMs; }
+    public int getWebsocketMessageSizeLimitKb() { return websocketMessageSizeLimitKb; }
+    public String getWebsocketSlowConsumerPolicy() { return websocketSlowConsumerPolicy; }
+    public long getWebsocketSlowConsumerThresholdMs() { return websocketSlowConsumerThresholdMs; }
+    public int getAdmissionQueueCapacity() { return admissionQueueCapacity; }
+    public boolean isCachingEnabled() { return cachingEnabled; }
+    public int getPlanCacheMaxSize() { return planCacheMaxSize; }
+    public long getPlanCacheTtlSeconds() { return planCacheTtlSeconds; }
+    public boolean isPlanOptimizerEnabled() { return planOptimizerEnabled; }
+    public boolean isPlanOptimizerFuseSteps() { return planOptimizerFuseSteps; }
+    public long getPlanOptimizerDefaultStepLatencyMs() { return planOptimizerDefaultStepLatencyMs; }
+    public int getPlanTemplatesMaxSize() { return planTemplatesMaxSize; }
+    public long getStepCacheMaxWeightMb() { return stepCacheMaxWeightMb; }
+    public long getStepCacheWeatherTtlSeconds() { return stepCacheWeatherTtlSeconds; }
+    public long getStepCacheSearchTtlSeconds() { return stepCacheSearchTtlSeconds; }
     
     /**
      * 关闭资源
@@ -153,5 +604,15 @@ public class AgentConfig {
         if (cachedExecutorService != null && !cachedExecutorService.isShutdown()) {
             cachedExecutorService.shutdown();
         }
+        if (cachedStepExecutorService != null && !cachedStepExecutorService.isShutdown()) {
+            cachedStepExecutorService.shutdown();
+        }
+        cachedAgentExecutorServices.values().forEach(ExecutorService::shutdown);
+        if (cachedStreamSenderExecutorService != null && !cachedStreamSenderExecutorService.isShutdown()) {
+            cachedStreamSenderExecutorService.shutdownNow();
+        }
+        if (cachedDeadlineScheduler != null && !cachedDeadlineScheduler.isShutdown()) {
+            cachedDeadlineScheduler.shutdownNow();
+        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,35 @@
+package config;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 以客户端自带的 clientId 作为 WebSocket 用户名
+ * 应用没有登录体系，客户端连接 /ws?clientId=... 并在提交任务时带上相同的 X-Client-Id，
+ * 即可在 /user/queue/task-updates 收到自己提交的任务更新；未提供时分配随机ID
+ */
+public class ClientIdHandshakeHandler extends DefaultHandshakeHandler {
+
+    private static final Pattern CLIENT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Override
+    protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String clientId = normalize(UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("clientId"));
+        String name = clientId != null ? clientId : UUID.randomUUID().toString();
+        return () -> name;
+    }
+
+    /**
+     * 校验客户端ID，格式不合法时返回 null
+     */
+    public static String normalize(String clientId) {
+        return clientId != null && CLIENT_ID.matcher(clientId).matches() ? clientId : null;
+    }
+}
@@ -0,0 +1,67 @@
+package config;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带自适应并发限制的 ChatModel
+ * 规划调用和 AiServices Agent 的每次模型调用都先经过限制器排队，调用的 token 用量计入当前线程绑定的任务
+ */
+public class LimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Timer queueWaitTimer;
+
+    public LimitedChatModel(ChatModel delegate, AdaptiveConcurrencyLimiter limiter, Timer queueWaitTimer) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.queueWaitTimer = queueWaitTimer;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest chatRequest) {
+        try {
+            queueWaitTimer.record(limiter.acquire(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("等待模型调用许可时被中断");
+        }
+        long start = System.nanoTime();
+        try {
+            ChatResponse response = delegate.chat(chatRequest);
+            TokenUsage tokenUsage = response.tokenUsage();
+            limiter.onSuccess(System.nanoTime() - start, tokenUsage != null ? tokenUsage.outputTokenCount() : null);
+            TokenUsageTracker.record(TokenUsageTracker.current(), tokenUsage);
+            return response;
+        } catch (RuntimeException | Error e) {
+            limiter.onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
@@ -0,0 +1,105 @@
+package config;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 带自适应并发限制的 StreamingChatModel
+ * 与 LimitedChatModel 共享同一个限制器，许可在流结束（完成或出错）时释放，以首 token 延迟作为拥塞信号；
+ * token 用量计入发起调用的线程所绑定的任务，回调期间沿用该绑定
+ */
+public class LimitedStreamingChatModel implements StreamingChatModel {
+
+    private final StreamingChatModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Timer queueWaitTimer;
+
+    public LimitedStreamingChatModel(StreamingChatModel delegate, AdaptiveConcurrencyLimiter limiter, Timer queueWaitTimer) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.queueWaitTimer = queueWaitTimer;
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        try {
+            queueWaitTimer.record(limiter.acquire(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("等待模型调用许可时被中断");
+        }
+        long start = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        AtomicLong firstTokenNanos = new AtomicLong();
+        Consumer<TokenUsage> usage = TokenUsageTracker.current();
+        try {
+            delegate.chat(chatRequest, new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    firstTokenNanos.compareAndSet(0, Math.max(1, System.nanoTime() - start));
+                    handler.onPartialResponse(partialResponse);
+                }
+
+                @Override
+                public void onCompleteResponse(ChatResponse completeResponse) {
+                    if (released.compareAndSet(false, true)) {
+                        long firstToken = firstTokenNanos.get();
+                        TokenUsage tokenUsage = completeResponse.tokenUsage();
+                        if (firstToken > 0) {
+                            limiter.onSuccess(AdaptiveConcurrencyLimiter.Signal.FIRST_TOKEN, firstToken);
+                        } else {
+                            // 只有工具调用、没有文本输出时按非流式调用处理
+                            limiter.onSuccess(System.nanoTime() - start,
+                                tokenUsage != null ? tokenUsage.outputTokenCount() : null);
+                        }
+                    }
+                    TokenUsageTracker.record(usage, completeResponse.tokenUsage());
+                    // AiServices 在完成回调中执行工具并发起下一轮调用，这些调用的用量同样计入
+                    TokenUsageTracker.track(usage, () -> handler.onCompleteResponse(completeResponse));
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.onFailure(error);
+                    }
+                    handler.onError(error);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            if (released.compareAndSet(false, true)) {
+                limiter.onFailure(e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
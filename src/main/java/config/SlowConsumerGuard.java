@@ -0,0 +1,149 @@
+package config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 慢消费者处理
+ * 记录每个会话当前一次发送已阻塞的时间，超过阈值即视为慢消费者：
+ * disconnect 策略下交给 Spring 的发送缓冲/发送时限，超出后断开会话；
+ * coalesce 策略下丢弃发往该会话的可丢弃消息（中间进度增量和 token 帧），客户端凭序号缺口请求一次完整快照补齐。
+ * 同时作为出站线程池的拒绝策略：队列满时由提交线程直接发送，并计数
+ */
+public class SlowConsumerGuard implements ChannelInterceptor, WebSocketHandlerDecoratorFactory, RejectedExecutionHandler {
+
+    /** 消息头：为 true 的消息在会话拥塞时可以丢弃 */
+    public static final String DROPPABLE_HEADER = "agentDroppable";
+
+    private final boolean coalesce;
+    private final long slowThresholdNanos;
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong terminated = new AtomicLong();
+
+    public SlowConsumerGuard(String policy, long slowThresholdMillis) {
+        this.coalesce = "coalesce".equalsIgnoreCase(policy);
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!coalesce || !Boolean.TRUE.equals(message.getHeaders().get(DROPPABLE_HEADER))) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        TrackedSession session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session != null && session.isSlow(System.nanoTime())) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                TrackedSession tracked = new TrackedSession(session);
+                sessions.put(session.getId(), tracked);
+                super.afterConnectionEstablished(tracked);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                super.handleMessage(tracked(session), message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                super.handleTransportError(tracked(session), exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                WebSocketSession tracked = tracked(session);
+                sessions.remove(session.getId());
+                // 发送缓冲或发送时限超出时 Spring 以 SESSION_NOT_RELIABLE 关闭会话
+                if (CloseStatus.SESSION_NOT_RELIABLE.equals(closeStatus)) {
+                    terminated.incrementAndGet();
+                }
+                super.afterConnectionClosed(tracked, closeStatus);
+            }
+        };
+    }
+
+    private WebSocketSession tracked(WebSocketSession session) {
+        TrackedSession tracked = sessions.get(session.getId());
+        return tracked != null ? tracked : session;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        rejected.incrementAndGet();
+        if (!executor.isShutdown()) {
+            task.run();
+        }
+    }
+
+    int getSlowSessionCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (TrackedSession session : sessions.values()) {
+            if (session.isSlow(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    long getDropped() { return dropped.get(); }
+
+    long getRejected() { return rejected.get(); }
+
+    long getTerminated() { return terminated.get(); }
+
+    /**
+     * 记录当前一次发送的开始时间，发送阻塞说明客户端接收跟不上
+     */
+    private final class TrackedSession extends WebSocketSessionDecorator {
+        private volatile long sendStartedNanos;
+
+        TrackedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            sendStartedNanos = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                sendStartedNanos = 0;
+            }
+        }
+
+        boolean isSlow(long now) {
+            long started = sendStartedNanos;
+            return started != 0 && now - started > slowThresholdNanos;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package config;
+
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 模型调用 token 用量的归属
+ * 执行任务的线程绑定一个用量接收者，LimitedChatModel / LimitedStreamingChatModel 把每次调用的用量记到该接收者上。
+ * 流式调用在发起线程上取得接收者，回调期间重新绑定，AiServices 在回调中发起的工具循环后续调用同样计入
+ */
+public final class TokenUsageTracker {
+
+    private static final ThreadLocal<Consumer<TokenUsage>> CURRENT = new ThreadLocal<>();
+
+    private TokenUsageTracker() {
+    }
+
+    /**
+     * 在当前线程绑定用量接收者后执行 work，结束后恢复原来的绑定
+     */
+    public static <T> T track(Consumer<TokenUsage> sink, Supplier<T> work) {
+        Consumer<TokenUsage> previous = CURRENT.get();
+        CURRENT.set(sink);
+        try {
+            return work.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    static void track(Consumer<TokenUsage> sink, Runnable work) {
+        track(sink, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * 当前线程绑定的用量接收者，没有绑定时为 null
+     */
+    static Consumer<TokenUsage> current() {
+        return CURRENT.get();
+    }
+
+    static void record(Consumer<TokenUsage> sink, TokenUsage usage) {
+        if (sink != null && usage != null) {
+            sink.accept(usage);
+        }
+    }
+}
@@ -1,32 +1,107 @@
 package config;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * WebSocket 配置
- * 支持实时任务状态推送
+ * 支持实时任务状态推送；入站/出站通道线程池、每个会话的发送缓冲与发送时限，以及慢消费者策略均来自 app.agent.websocket
  */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     
+    private final AgentConfig agentConfig;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final ThreadPoolTaskExecutor inboundExecutor = new ThreadPoolTaskExecutor();
+    private final ThreadPoolTaskExecutor outboundExecutor = new ThreadPoolTaskExecutor();
+    
+    public WebSocketConfig(AgentConfig agentConfig, MeterRegistry meterRegistry) {
+        this.agentConfig = agentConfig;
+        this.slowConsumerGuard = new SlowConsumerGuard(agentConfig.getWebsocketSlowConsumerPolicy(),
+            agentConfig.getWebsocketSlowConsumerThresholdMs());
+        // 入站队列满时由 WebSocket 读线程直接处理，形成对客户端的反压；出站队列满时计数后由推送线程直接发送
+        inboundExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        outboundExecutor.setRejectedExecutionHandler(slowConsumerGuard);
+        registerMetrics(meterRegistry);
+    }
+    
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // 启用简单的消息代理，用于向客户端推送消息
-        config.enableSimpleBroker("/topic");
+        config.enableSimpleBroker("/topic", "/queue");
         // 设置客户端发送消息的前缀
         config.setApplicationDestinationPrefixes("/app");
+        // 按用户投递的前缀，/user/queue/... 只发给对应客户端
+        config.setUserDestinationPrefix("/user");
     }
     
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
-        // 注册 STOMP 端点，客户端通过这个端点进行连接
+        // 注册 STOMP 端点，客户端通过这个端点进行连接，连接参数 clientId 作为用户名
         registry.addEndpoint("/ws")
                 .setAllowedOrigins("http://localhost:3000", "http://localhost:8080", "http://127.0.0.1:8080")
+                .setHandshakeHandler(new ClientIdHandshakeHandler())
                 .withSockJS();
     }
-} 
\ No newline at end of file
+    
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(inboundExecutor)
+                .corePoolSize(agentConfig.getWebsocketInboundThreads())
+                .maxPoolSize(agentConfig.getWebsocketInboundThreads())
+                .queueCapacity(agentConfig.getWebsocketChannelQueueCapacity());
+    }
+    
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(outboundExecutor)
+                .corePoolSize(agentConfig.getWebsocketOutboundThreads())
+                .maxPoolSize(agentConfig.getWebsocketOutboundThreads())
+                .queueCapacity(agentConfig.getWebsocketChannelQueueCapacity());
+        registration.interceptors(slowConsumerGuard);
+    }
+    
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // 单个会话积压超过发送缓冲或一次发送超过时限时断开该会话，不拖慢其他客户端
+        registration.setSendBufferSizeLimit(agentConfig.getWebsocketSendBufferSizeKb() * 1024)
+                .setSendTimeLimit(agentConfig.getWebsocketSendTimeLimitMs())
+                .setMessageSizeLimit(agentConfig.getWebsocketMessageSizeLimitKb() * 1024)
+                .addDecoratorFactory(slowConsumerGuard);
+    }
+    
+    private void registerMetrics(MeterRegistry registry) {
+        Gauge.builder("agent.websocket.channel.queue.depth", inboundExecutor, ThreadPoolTaskExecutor::getQueueSize)
+            .description("WebSocket 通道线程池中排队的消息数")
+            .tag("channel", "inbound")
+            .register(registry);
+        Gauge.builder("agent.websocket.channel.queue.depth", outboundExecutor, ThreadPoolTaskExecutor::getQueueSize)
+            .description("WebSocket 通道线程池中排队的消息数")
+            .tag("channel", "outbound")
+            .register(registry);
+        Gauge.builder("agent.websocket.sessions.slow", slowConsumerGuard, SlowConsumerGuard::getSlowSessionCount)
+            .description("当前发送阻塞超过阈值的会话数")
+            .register(registry);
+        FunctionCounter.builder("agent.websocket.messages.dropped", slowConsumerGuard, SlowConsumerGuard::getDropped)
+            .description("慢消费者 coalesce 策略下丢弃的消息数")
+            .register(registry);
+        FunctionCounter.builder("agent.websocket.outbound.rejected", slowConsumerGuard, SlowConsumerGuard::getRejected)
+            .description("出站队列已满、由推送线程直接发送的消息数")
+            .register(registry);
+        FunctionCounter.builder("agent.websocket.sessions.terminated", slowConsumerGuard, SlowConsumerGuard::getTerminated)
+            .description("因发送缓冲或发送时限超出被断开的会话数")
+            .register(registry);
+    }
+}
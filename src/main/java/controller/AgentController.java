@@ -1,15 +1,26 @@
 package controller;
 
 import agent.EnhancedAgentOrchestrator;
+import agent.ExecutionMode;
 import agent.TaskExecution;
+import agent.TaskRejectedException;
 import config.AgentConfig;
+import config.ClientIdHandshakeHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import service.TaskEventStreams;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Agent REST API 控制器
@@ -27,30 +38,103 @@ public class AgentController {
     @Autowired
     private AgentConfig agentConfig;
     
+    @Autowired
+    private TaskEventStreams eventStreams;
+    
+    private static final String NDJSON = "application/x-ndjson";
+    
     /**
      * 提交任务
      */
     @PostMapping("/task")
-    public ResponseEntity<TaskExecution> submitTask(@RequestBody TaskRequest request) {
+    public ResponseEntity<TaskExecution> submitTask(@RequestBody TaskRequest request,
+                                                    @RequestHeader(value = "X-Client-Id", required = false) String clientId) {
         try {
-            TaskExecution task = orchestrator.submitTask(request.getUserInput());
+            // 客户端ID与 WebSocket 连接时的 clientId 一致时，任务更新推送到该客户端的用户队列
+            TaskExecution task = orchestrator.submitTask(request.getUserInput(), ClientIdHandshakeHandler.normalize(clientId),
+                ExecutionMode.parse(request.getMode()));
             return ResponseEntity.ok(task);
+        } catch (TaskRejectedException e) {
+            // 负载过高时快速拒绝，由客户端按 Retry-After 重试
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    /**
+     * 提交任务并以 NDJSON 流式返回任务事件，直到任务结束（请求头 Accept: application/x-ndjson）
+     */
+    @PostMapping(value = "/task", produces = NDJSON)
+    public ResponseEntity<ResponseBodyEmitter> submitTaskStreaming(@RequestBody TaskRequest request,
+                                                                   @RequestHeader(value = "X-Client-Id", required = false) String clientId) {
+        try {
+            TaskExecution task = orchestrator.submitTask(request.getUserInput(), ClientIdHandshakeHandler.normalize(clientId),
+                ExecutionMode.parse(request.getMode()));
+            return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(eventStreams.openNdjson(task));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
     }
     
+    /**
+     * 以 Server-Sent Events 推送任务事件：update、step-started、step-completed、token，任务结束时发送 completed 后关闭
+     */
+    @GetMapping(value = "/task/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTaskEvents(@PathVariable String taskId) {
+        TaskExecution task = orchestrator.getTaskStatus(taskId);
+        if (task == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(eventStreams.openSse(task));
+    }
+    
     /**
      * 获取任务状态
+     * 带 waitMs 时为长轮询：任务状态变化或结束时立即返回，等待超时返回当前状态；等待期间不占用请求线程
      */
     @GetMapping("/task/{taskId}")
-    public ResponseEntity<TaskExecution> getTaskStatus(@PathVariable String taskId) {
+    public DeferredResult<ResponseEntity<TaskExecution>> getTaskStatus(@PathVariable String taskId,
+                                                                      @RequestParam(required = false) Long waitMs) {
         TaskExecution task = orchestrator.getTaskStatus(taskId);
-        if (task != null) {
-            return ResponseEntity.ok(task);
-        } else {
+        if (task == null || waitMs == null || waitMs <= 0) {
+            DeferredResult<ResponseEntity<TaskExecution>> result = new DeferredResult<>();
+            result.setResult(task != null ? ResponseEntity.ok(task) : ResponseEntity.notFound().build());
+            return result;
+        }
+        
+        long timeout = Math.min(waitMs, agentConfig.getLongPollMaxWaitMs());
+        // 超时结果引用同一个任务对象，序列化时即为当前状态
+        DeferredResult<ResponseEntity<TaskExecution>> result = new DeferredResult<>(timeout, ResponseEntity.ok(task));
+        CompletableFuture<TaskExecution> change = orchestrator.awaitStatusChange(task, task.getStatus());
+        change.thenAccept(changed -> result.setResult(ResponseEntity.ok(changed)));
+        // 超时或连接断开时移除等待者
+        result.onCompletion(() -> change.cancel(false));
+        return result;
+    }
+    
+    /**
+     * 取消任务，正在执行的规划调用和Agent步骤会被中断
+     */
+    @DeleteMapping("/task/{taskId}")
+    public ResponseEntity<TaskExecution> cancelTask(@PathVariable String taskId) {
+        TaskExecution task = orchestrator.getTaskStatus(taskId);
+        if (task == null) {
             return ResponseEntity.notFound().build();
         }
+        if (orchestrator.cancelTask(taskId)) {
+            return ResponseEntity.ok(task);
+        }
+        // 任务已经结束，无法取消
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(task);
     }
     
     /**
@@ -111,8 +195,12 @@ public class AgentController {
      */
     public static class TaskRequest {
         private String userInput;
+        // 执行方式：auto（默认）、planned、single-shot
+        private String mode;
         
         public String getUserInput() { return userInput; }
         public void setUserInput(String userInput) { this.userInput = userInput; }
+        public String getMode() { return mode; }
+        public void setMode(String mode) { this.mode = mode; }
     }
 } 
\ No newline at end of file
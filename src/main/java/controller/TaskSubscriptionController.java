@@ -0,0 +1,68 @@
+package controller;
+
+import agent.EnhancedAgentOrchestrator;
+import agent.TaskExecution;
+import agent.TaskUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WebSocket 订阅控制器
+ * 客户端订阅时直接回复任务的完整快照，之后通过增量更新保持同步；断线重连后按序号补发缺失的增量
+ */
+@Controller
+public class TaskSubscriptionController {
+
+    // 单次补发请求最多处理的任务数
+    private static final int MAX_RESUME_TASKS = 200;
+
+    @Autowired
+    private EnhancedAgentOrchestrator orchestrator;
+
+    /**
+     * 任务完整快照，客户端开始跟踪任务或发现增量序号不连续时订阅
+     */
+    @SubscribeMapping("/task/{taskId}/snapshot")
+    public TaskUpdate taskSnapshot(@DestinationVariable String taskId) {
+        TaskExecution task = orchestrator.getTaskStatus(taskId);
+        return task != null ? task.snapshot() : null;
+    }
+
+    /**
+     * 断线重连后补发：客户端上报各任务已收到的最后序号，只回复缺失的增量，
+     * 缺口已超出任务事件环形缓冲时回复完整快照；已不存在的任务被忽略
+     */
+    @MessageMapping("/task/resume")
+    @SendToUser(destinations = "/queue/task-resume", broadcast = false)
+    public List<TaskUpdate> resume(ResumeRequest request) {
+        List<TaskUpdate> updates = new ArrayList<>();
+        if (request.getTasks() == null) {
+            return updates;
+        }
+        request.getTasks().entrySet().stream().limit(MAX_RESUME_TASKS).forEach(entry -> {
+            TaskExecution task = orchestrator.getTaskStatus(entry.getKey());
+            if (task != null) {
+                updates.add(task.updateSince(entry.getValue() != null ? entry.getValue() : -1));
+            }
+        });
+        return updates;
+    }
+
+    /**
+     * 重连补发请求：任务ID -> 已收到的最后序号（未知时为 -1）
+     */
+    public static class ResumeRequest {
+        private Map<String, Long> tasks;
+
+        public Map<String, Long> getTasks() { return tasks; }
+        public void setTasks(Map<String, Long> tasks) { this.tasks = tasks; }
+    }
+}
@@ -0,0 +1,311 @@
+package service;
+
+import agent.TaskExecution;
+import agent.TaskUpdate;
+import config.AgentConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP 流式任务事件（SSE / NDJSON）
+ * 事件与 WebSocket 推送同源，由 WebSocketService 转发：update（任务增量，首条为完整快照）、
+ * step-started、step-completed、token，任务结束时发送 completed 并关闭流。
+ * 每个流按自己已收到的序号向任务事件环形缓冲取增量，不受 WebSocket 推送游标影响；
+ * 流基于 Servlet 异步响应，空闲时不占用线程。
+ * 发布事件的任务/步骤线程只把事件放入流自己的有界队列，由发送线程写出，慢客户端不会阻塞 Agent 执行；
+ * 队列满时丢弃 token 片段，其他事件无法入队时关闭该流（客户端可改用状态查询补齐）
+ */
+@Component
+public class TaskEventStreams {
+
+    // 任务结束后流最多再保持的时间，防止终态事件丢失时流永不关闭
+    private static final long GRACE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    // 每个流待发送的事件上限
+    private static final int QUEUE_CAPACITY = 256;
+    private static final String DROPPABLE_TYPE = "token";
+
+    private final Map<String, Set<Stream>> streams = new ConcurrentHashMap<>();
+    // 每个流同时至多一个发送任务；线程数有上限，慢客户端较多时其余流排队等待发送线程
+    private final ExecutorService sender;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    public TaskEventStreams(MeterRegistry meterRegistry, AgentConfig agentConfig) {
+        this.sender = agentConfig.getStreamSenderExecutorService();
+        FunctionCounter.builder("agent.stream.events.dropped", this, TaskEventStreams::getDroppedEvents)
+            .description("SSE/NDJSON 流发送队列已满时丢弃的 token 片段数")
+            .register(meterRegistry);
+        FunctionCounter.builder("agent.stream.overflows", this, TaskEventStreams::getOverflowedStreams)
+            .description("发送队列或发送线程池已满而被关闭的 SSE/NDJSON 流数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 以 Server-Sent Events 推送任务事件
+     */
+    public SseEmitter openSse(TaskExecution task) {
+        SseEmitter emitter = new SseEmitter(timeoutOf(task));
+        open(task, emitter, (type, data) -> emitter.send(SseEmitter.event().name(type).data(data, MediaType.APPLICATION_JSON)));
+        return emitter;
+    }
+
+    /**
+     * 以换行分隔的 JSON（每行 {"event": ..., "data": ...}）推送任务事件
+     */
+    public ResponseBodyEmitter openNdjson(TaskExecution task) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutOf(task));
+        open(task, emitter, (type, data) -> {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("event", type);
+            line.put("data", data);
+            emitter.send(line, MediaType.APPLICATION_JSON);
+            emitter.send("\n", MediaType.TEXT_PLAIN);
+        });
+        return emitter;
+    }
+
+    private void open(TaskExecution task, ResponseBodyEmitter emitter, Sink sink) {
+        Stream stream = new Stream(task, emitter, sink);
+        emitter.onCompletion(stream::close);
+        emitter.onTimeout(stream::close);
+        emitter.onError(error -> stream.close());
+        // 先登记再发送快照，期间的变更由流自己的序号补齐
+        streams.compute(task.getTaskId(), (id, set) -> {
+            Set<Stream> target = set != null ? set : ConcurrentHashMap.newKeySet();
+            target.add(stream);
+            return target;
+        });
+        stream.update(task.isFinished());
+    }
+
+    public boolean hasStreams(String taskId) {
+        return streams.containsKey(taskId);
+    }
+
+    /**
+     * 因发送队列已满而丢弃的 token 片段数
+     */
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    /**
+     * 因发送队列或发送线程池已满而关闭的流数
+     */
+    public long getOverflowedStreams() {
+        return overflowed.get();
+    }
+
+    /**
+     * 任务状态或日志有变化
+     *
+     * @param finished 任务已进入终态，发送最后的增量后关闭流
+     */
+    void onUpdate(TaskExecution task, boolean finished) {
+        Set<Stream> targets = streams.get(task.getTaskId());
+        if (targets != null) {
+            targets.forEach(stream -> stream.update(finished));
+        }
+    }
+
+    /**
+     * 转发不属于任务状态的事件（步骤开始/结束、token 片段）
+     */
+    void onEvent(String taskId, String type, Object data) {
+        Set<Stream> targets = streams.get(taskId);
+        if (targets != null) {
+            targets.forEach(stream -> stream.send(type, data));
+        }
+    }
+
+    private static long timeoutOf(TaskExecution task) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(task.remainingNanos())) + GRACE_MILLIS;
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void send(String type, Object data) throws IOException;
+    }
+
+    private final class Stream {
+        private final TaskExecution task;
+        private final ResponseBodyEmitter emitter;
+        private final Sink sink;
+        // 待发送的事件；type 为 null 的条目表示“发送最新增量”，发送时才计算，多次变更合并为一次
+        private final Deque<Event> pending = new ArrayDeque<>();
+        // 只由当前发送任务读写
+        private long seq = -1;
+        private boolean updateQueued;
+        private boolean finishing;
+        private boolean draining;
+        private boolean closed;
+
+        Stream(TaskExecution task, ResponseBodyEmitter emitter, Sink sink) {
+            this.task = task;
+            this.emitter = emitter;
+            this.sink = sink;
+        }
+
+        void update(boolean finished) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                finishing |= finished;
+                if (updateQueued) {
+                    return;
+                }
+                if (!offerLocked(new Event(null, null))) {
+                    return;
+                }
+                updateQueued = true;
+            }
+            scheduleDrain();
+        }
+
+        void send(String type, Object data) {
+            synchronized (this) {
+                if (closed || !offerLocked(new Event(type, data))) {
+                    return;
+                }
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * 入队；队列满时丢弃 token 片段，其他事件无法入队时关闭流
+         */
+        private boolean offerLocked(Event event) {
+            if (pending.size() < QUEUE_CAPACITY) {
+                pending.add(event);
+                return true;
+            }
+            if (DROPPABLE_TYPE.equals(event.type)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            overflowed.incrementAndGet();
+            closeLocked();
+            emitter.complete();
+            return false;
+        }
+
+        private void scheduleDrain() {
+            synchronized (this) {
+                if (draining || pending.isEmpty()) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                sender.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 发送线程池已满或应用关闭中
+                overflowed.incrementAndGet();
+                close();
+                emitter.complete();
+            }
+        }
+
+        /**
+         * 在发送线程上依次写出队列中的事件，队列清空后退出
+         */
+        private void drain() {
+            while (true) {
+                Event event;
+                boolean finished;
+                synchronized (this) {
+                    event = closed ? null : pending.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                    if (event.type == null) {
+                        updateQueued = false;
+                    }
+                    finished = finishing;
+                }
+                if (event.type == null) {
+                    if (!writeUpdate(finished)) {
+                        return;
+                    }
+                } else if (!write(event.type, event.data)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean writeUpdate(boolean finished) {
+            TaskUpdate update = task.updateSince(seq);
+            boolean written = true;
+            if (update.isSnapshot() || update.getSeq() > seq) {
+                seq = update.getSeq();
+                written = write(finished ? "completed" : "update", update);
+            } else if (finished) {
+                written = write("completed", update);
+            }
+            if (written && finished) {
+                close();
+                emitter.complete();
+                return false;
+            }
+            return written;
+        }
+
+        private boolean write(String type, Object data) {
+            try {
+                sink.send(type, data);
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开
+                close();
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+
+        synchronized void close() {
+            closeLocked();
+        }
+
+        private void closeLocked() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            draining = false;
+            pending.clear();
+            streams.computeIfPresent(task.getTaskId(), (id, set) -> {
+                set.remove(this);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private static final class Event {
+        private final String type;
+        private final Object data;
+
+        Event(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket 订阅登记
+ * 根据 STOMP 订阅/取消订阅/断开事件统计每个目的地的订阅数，推送前据此跳过无人订阅的任务。
+ * 用户目的地（/user/...）按用户名分别统计
+ */
+@Component
+public class TaskSubscriptionRegistry {
+
+    private static final String USER_PREFIX = "/user";
+
+    // 会话ID -> (订阅ID -> 统计键)
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String key = keyOf(accessor.getDestination(), event.getUser());
+        if (accessor.getSessionId() == null || accessor.getSubscriptionId() == null || key == null) {
+            return;
+        }
+        String previous = sessions.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>())
+            .put(accessor.getSubscriptionId(), key);
+        if (previous != null) {
+            decrement(previous);
+        }
+        counts.merge(key, 1, Integer::sum);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = accessor.getSessionId() != null ? sessions.get(accessor.getSessionId()) : null;
+        if (subscriptions != null && accessor.getSubscriptionId() != null) {
+            String key = subscriptions.remove(accessor.getSubscriptionId());
+            if (key != null) {
+                decrement(key);
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::decrement);
+        }
+    }
+
+    /**
+     * 是否有客户端订阅了该目的地
+     */
+    public boolean hasSubscribers(String destination) {
+        return counts.containsKey(destination);
+    }
+
+    /**
+     * 指定用户是否订阅了该用户目的地（如 /queue/task-updates）
+     */
+    public boolean hasUserSubscribers(String user, String destination) {
+        return counts.containsKey(userKey(user, destination));
+    }
+
+    private void decrement(String key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static String keyOf(String destination, Principal user) {
+        if (destination == null) {
+            return null;
+        }
+        if (destination.startsWith(USER_PREFIX + "/")) {
+            return user != null ? userKey(user.getName(), destination.substring(USER_PREFIX.length())) : null;
+        }
+        return destination;
+    }
+
+    private static String userKey(String user, String destination) {
+        return USER_PREFIX + "/" + user + destination;
+    }
+}
@@ -1,42 +1,157 @@
 package service;
 
 import agent.TaskExecution;
+import config.AgentConfig;
+import config.SlowConsumerGuard;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * WebSocket 消息服务
- * 用于推送任务状态更新
+ * 用于推送任务状态更新：每条消息只携带上次推送以来的增量（带任务内递增的序号），
+ * 完整快照由客户端订阅 /app/task/{taskId}/snapshot 获取。
+ * 更新只发往订阅了该任务的客户端（/topic/task/{taskId}）和提交者（/user/queue/task-updates）
  */
 @Service
 public class WebSocketService {
     
+    /** 提交者接收自己任务更新的用户队列 */
+    public static final String TASK_QUEUE = "/queue/task-updates";
+    
     private final SimpMessagingTemplate messagingTemplate;
+    private final TaskSubscriptionRegistry subscriptions;
+    private final TaskEventStreams eventStreams;
+    private final boolean broadcast;
     
-    public WebSocketService(SimpMessagingTemplate messagingTemplate) {
+    public WebSocketService(SimpMessagingTemplate messagingTemplate, TaskSubscriptionRegistry subscriptions,
+                            TaskEventStreams eventStreams, AgentConfig agentConfig) {
         this.messagingTemplate = messagingTemplate;
+        this.subscriptions = subscriptions;
+        this.eventStreams = eventStreams;
+        this.broadcast = agentConfig.isWebsocketBroadcast();
     }
     
     /**
      * 推送任务状态更新
      */
     public void pushTaskUpdate(TaskExecution task) {
-        messagingTemplate.convertAndSend("/topic/task-update", task);
+        publish(task, "/topic/task-update", false);
     }
     
     /**
      * 推送任务完成通知
      */
     public void pushTaskCompleted(TaskExecution task) {
-        messagingTemplate.convertAndSend("/topic/task-completed", task);
+        publish(task, "/topic/task-completed", true);
     }
     
     /**
      * 推送任务失败通知
      */
     public void pushTaskFailed(TaskExecution task) {
-        messagingTemplate.convertAndSend("/topic/task-failed", task);
+        publish(task, "/topic/task-failed", true);
+    }
+    
+    /**
+     * 推送任务超时/取消通知
+     */
+    public void pushTaskCancelled(TaskExecution task) {
+        publish(task, "/topic/task-cancelled", true);
+    }
+    
+    /**
+     * 推送到任务主题、提交者的用户队列、开启广播时的共享主题，以及该任务的 HTTP 事件流。
+     * 没有任何接收方时不生成更新，只推进推送游标；有多个接收方时只序列化一次。
+     * 中间进度更新标记为可丢弃，慢消费者被跳过的更新由客户端按序号缺口补齐；终态更新总是发送
+     */
+    private void publish(TaskExecution task, String broadcastTopic, boolean finished) {
+        eventStreams.onUpdate(task, finished);
+        String taskTopic = "/topic/task/" + task.getTaskId();
+        String owner = task.getOwner();
+        boolean toTask = subscriptions.hasSubscribers(taskTopic);
+        boolean toOwner = owner != null && subscriptions.hasUserSubscribers(owner, TASK_QUEUE);
+        if (!toTask && !toOwner && !broadcast) {
+            task.skipUpdate();
+            return;
+        }
+        Message<?> message = messagingTemplate.getMessageConverter().toMessage(task.nextUpdate(), headers(!finished));
+        if (message == null) {
+            return;
+        }
+        if (toTask) {
+            messagingTemplate.send(taskTopic, message);
+        }
+        if (toOwner) {
+            messagingTemplate.send("/user/" + owner + TASK_QUEUE, message);
+        }
+        if (broadcast) {
+            messagingTemplate.send(broadcastTopic, message);
+        }
+    }
+    
+    /**
+     * 推送步骤生成中的 token 片段（按任务区分目的地），无人订阅时直接丢弃
+     */
+    public void pushTaskTokens(String taskId, int stepId, String agent, String text) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("taskId", taskId);
+        frame.put("stepId", stepId);
+        frame.put("agent", agent);
+        frame.put("text", text);
+        publishEvent(taskId, "/topic/task/" + taskId + "/tokens", "token", frame);
+    }
+    
+    /**
+     * 推送步骤开始事件
+     */
+    public void pushStepStarted(String taskId, int stepId, String agent, String action) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("taskId", taskId);
+        event.put("stepId", stepId);
+        event.put("agent", agent);
+        event.put("action", action);
+        event.put("event", "step-started");
+        publishEvent(taskId, "/topic/task/" + taskId + "/steps", "step-started", event);
+    }
+    
+    /**
+     * 推送步骤结束事件
+     *
+     * @param success 步骤是否正常返回结果
+     */
+    public void pushStepCompleted(String taskId, int stepId, String agent, boolean success) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("taskId", taskId);
+        event.put("stepId", stepId);
+        event.put("agent", agent);
+        event.put("success", success);
+        event.put("event", "step-completed");
+        publishEvent(taskId, "/topic/task/" + taskId + "/steps", "step-completed", event);
+    }
+    
+    /**
+     * 推送不属于任务状态的事件，目的地和事件流都无人订阅时直接丢弃
+     */
+    private void publishEvent(String taskId, String destination, String type, Map<String, Object> data) {
+        boolean toTopic = subscriptions.hasSubscribers(destination);
+        if (!toTopic && !eventStreams.hasStreams(taskId)) {
+            return;
+        }
+        eventStreams.onEvent(taskId, type, data);
+        if (toTopic) {
+            Message<?> message = messagingTemplate.getMessageConverter().toMessage(data, headers(true));
+            if (message != null) {
+                messagingTemplate.send(destination, message);
+            }
+        }
+    }
+    
+    private static MessageHeaders headers(boolean droppable) {
+        return new MessageHeaders(Map.of(SlowConsumerGuard.DROPPABLE_HEADER, droppable));
     }
     
     /**